@@ -7,18 +7,24 @@ import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.regex.Pattern;
 
-import com.tencent.mm.androlib.res.data.ResPackage;
 import com.tencent.mm.androlib.res.decoder.ARSCDecoder;
-import com.tencent.mm.androlib.res.decoder.RawARSCDecoder;
 import com.tencent.mm.androlib.res.util.ExtFile;
+import com.tencent.mm.directory.Directory;
 import com.tencent.mm.directory.DirectoryException;
+import com.tencent.mm.directory.FileDirectory;
+import com.tencent.mm.directory.MemoryDirectory;
 import com.tencent.mm.resourceproguard.Configuration;
 import com.tencent.mm.util.FileOperation;
 import com.tencent.mm.util.TypedValue;
 import com.tencent.mm.util.Utils;
+import com.tencent.mm.zip.RawZipFile;
 
 /**
  * @author shwenzhang
@@ -28,22 +34,31 @@ public class ApkDecoder {
     private final Configuration            config;
     private       ExtFile                  mApkFile;
     private       File                     mOutDir;
-    private       File                     mOutTempARSCFile;
-    private       File                     mOutARSCFile;
     private       File                     mOutResFile;
     private       File                     mRawResFile;
     private       File                     mOutTempDir;
     private       File                     mResMappingFile;
+    private       Directory                mWorkDir;
+    private       Set<String>              mRawResFiles;
     private       HashMap<String, Integer> mCompressData;
+    private       RawZipFile               mApkZipFile;
+    private final Map<String, String>      mResFileMapping;
+    private final HashSet<String>          mRenamedResFiles;
     private PrintStream log;
 
     public ApkDecoder(Configuration config) {
         this.config = config;
+        mResFileMapping = new LinkedHashMap<String, String>();
+        mRenamedResFiles = new HashSet<String>();
     }
 
     public void setLog(PrintStream log) {
         this.log = log;
     }
+
+    public PrintStream getLog() {
+        return log != null ? log : System.out;
+    }
     
     public Configuration getConfig() {
         return config;
@@ -61,12 +76,22 @@ public class ApkDecoder {
         mApkFile = new ExtFile(apkFile);
     }
 
-    private void ensureFilePath() throws IOException {
+    private void ensureFilePath() throws IOException, DirectoryException {
         Utils.cleanDir(mOutDir);
 
-        String unZipDest = new File(mOutDir, TypedValue.UNZIP_FILE_PATH).getAbsolutePath();
-        log.printf("unziping apk to %s\n", unZipDest);
-        mCompressData = FileOperation.unZipAPk(mApkFile.getAbsoluteFile().getAbsolutePath(), unZipDest);
+        if (config.mUseStreaming) {
+            if (!mOutDir.exists()) {
+                mOutDir.mkdirs();
+            }
+            log.printf("reading apk entries from %s\n", mApkFile.getAbsolutePath());
+            mApkZipFile = new RawZipFile(mApkFile);
+            mCompressData = FileOperation.getCompressData(mApkZipFile);
+        } else {
+            String unZipDest = new File(mOutDir, TypedValue.UNZIP_FILE_PATH).getAbsolutePath();
+            log.printf("unziping apk to %s\n", unZipDest);
+            mCompressData = FileOperation.unZipAPk(mApkFile.getAbsoluteFile().getAbsolutePath(), unZipDest,
+                config.mWorkerThreads);
+        }
         dealWithCompressConfig();
         //将res混淆成r
         if (!config.mKeepRoot) {
@@ -79,12 +104,25 @@ public class ApkDecoder {
         mRawResFile = new File(mOutDir.getAbsoluteFile().getAbsolutePath() + File.separator + TypedValue.UNZIP_FILE_PATH + File.separator + "res");
         mOutTempDir = new File(mOutDir.getAbsoluteFile().getAbsolutePath() + File.separator + TypedValue.UNZIP_FILE_PATH);
 
-        if (!mRawResFile.exists() || !mRawResFile.isDirectory()) {
+        if (config.mUseStreaming) {
+            if (!mApkFile.getDirectory().containsDir("res")) {
+                throw new IOException("can not found res dir in the apk or it is not a dir");
+            }
+        } else if (!mRawResFile.exists() || !mRawResFile.isDirectory()) {
             throw new IOException("can not found res dir in the apk or it is not a dir");
+        } else {
+            //只遍历一次解压出来的res，之后查文件是否存在都不需要再stat。
+            //混淆的时候文件会从temp/res移走，这里的数量也用来在生成apk的时候检查
+            mRawResFiles = new HashSet<String>();
+            collectRawResFiles(mRawResFile, "res", mRawResFiles);
         }
 
-        mOutTempARSCFile = new File(mOutDir.getAbsoluteFile().getAbsolutePath() + File.separator + "resources_temp.arsc");
-        mOutARSCFile = new File(mOutDir.getAbsoluteFile().getAbsolutePath() + File.separator + "resources.arsc");
+        //新的resources.arsc写到这里，streaming模式下不落盘
+        if (config.mUseStreaming) {
+            mWorkDir = new MemoryDirectory(mOutDir, config.mMemoryDirThreshold);
+        } else {
+            mWorkDir = new FileDirectory(mOutDir);
+        }
 
         String basename = mApkFile.getName().substring(0, mApkFile.getName().indexOf(".apk"));
         mResMappingFile = new File(mOutDir.getAbsoluteFile().getAbsolutePath() + File.separator
@@ -132,12 +170,34 @@ public class ApkDecoder {
         return mRawResFile;
     }
 
-    public File getOutTempARSCFile() {
-        return mOutTempARSCFile;
+    /**
+     * 混淆过程中生成的中间文件(resources.arsc)所在的目录
+     */
+    public Directory getWorkDirectory() {
+        return mWorkDir;
     }
 
-    public File getOutARSCFile() {
-        return mOutARSCFile;
+    private static void collectRawResFiles(File dir, String path, Set<String> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            //这里用的是linux的分隔符，和resources.arsc里面的一样
+            String childPath = path + "/" + child.getName();
+            if (child.isDirectory()) {
+                collectRawResFiles(child, childPath, files);
+            } else {
+                files.add(childPath);
+            }
+        }
+    }
+
+    /**
+     * 解压出来的res下面的文件数量
+     */
+    public long getRawResFileCount() {
+        return mRawResFiles != null ? mRawResFiles.size() : 0;
     }
 
     public File getOutTempDir() {
@@ -148,6 +208,65 @@ public class ApkDecoder {
         return mResMappingFile;
     }
 
+    public File getApkFile() {
+        return mApkFile;
+    }
+
+    /**
+     * streaming模式下打开的源apk，其他模式为null
+     */
+    public RawZipFile getApkZipFile() {
+        return mApkZipFile;
+    }
+
+    /**
+     * res下面的各个文件夹名字，streaming模式直接从apk里面读取
+     */
+    public Set<String> getRawResDirNames() throws DirectoryException {
+        if (config.mUseStreaming) {
+            return mApkFile.getDirectory().getDir("res").getDirs().keySet();
+        }
+        Set<String> names = new LinkedHashSet<String>();
+        for (File resFile : mRawResFile.listFiles()) {
+            names.add(resFile.getName());
+        }
+        return names;
+    }
+
+    /**
+     * 原apk里面有没有这个res文件，streaming模式直接查apk，否则查解压时建好的索引
+     */
+    public boolean containsRawResFile(String path) throws DirectoryException {
+        if (config.mUseStreaming) {
+            return mApkFile.getDirectory().containsFile(path);
+        }
+        return mRawResFiles.contains(path);
+    }
+
+    /**
+     * 记录混淆后的文件名，同时用来检查重名，streaming模式下用来代替拷贝文件
+     *
+     * @return 如果混淆后的文件名已经存在，返回false
+     */
+    public boolean putRenamedResFile(String raw, String result) {
+        if (!mRenamedResFiles.add(result)) {
+            return false;
+        }
+        mResFileMapping.put(raw, result);
+        return true;
+    }
+
+    public Map<String, String> getResFileMapping() {
+        return mResFileMapping;
+    }
+
+    public void close() throws IOException {
+        if (mApkZipFile != null) {
+            mApkZipFile.close();
+            mApkZipFile = null;
+        }
+    }
+
 
     public void decode() throws AndrolibException, IOException, DirectoryException {
         if (hasResources()) {
@@ -155,9 +274,9 @@ public class ApkDecoder {
             // read the resources.arsc checking for STORED vs DEFLATE compression
             // this will determine whether we compress on rebuild or not.
             log.printf("decoding resources.arsc\n");
-            RawARSCDecoder.decode(mApkFile.getDirectory().getFileInput("resources.arsc"), log);
-            ResPackage[] pkgs = ARSCDecoder.decode(mApkFile.getDirectory().getFileInput("resources.arsc"), this);
-            ARSCDecoder.write(mApkFile.getDirectory().getFileInput("resources.arsc"), this, pkgs);
+            //只读一次，解析、混淆和生成新的resources.arsc都用这份数据
+            byte[] arscData = FileOperation.readContents(mApkFile.getDirectory().getFileInput("resources.arsc"));
+            ARSCDecoder.decode(arscData, this);
         }
     }
 }
@@ -1,27 +1,34 @@
 package com.tencent.mm.androlib;
 
+import com.tencent.mm.directory.Directory;
+import com.tencent.mm.directory.DirectoryException;
 import com.tencent.mm.resourceproguard.Configuration;
 import com.tencent.mm.util.FileOperation;
 import com.tencent.mm.util.TypedValue;
-import com.tencent.mm.util.Utils;
+import com.tencent.mm.zip.ApkSigner;
+import com.tencent.mm.zip.ParallelDeflater;
+import com.tencent.mm.zip.RawZipEntry;
+import com.tencent.mm.zip.RawZipFile;
+import com.tencent.mm.zip.RawZipOutputStream;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author shwenzhang
  */
 public class ResourceApkBuilder {
+    private static final int BUFFER = 8192;
 
     private final Configuration config;
     private       File          mOutDir;
-    private       File          m7zipOutPutDir;
 
     private File mUnSignedApk;
     private File mSignedApk;
@@ -31,6 +38,7 @@ public class ResourceApkBuilder {
     private File mAlignedWith7ZipApk;
 
     private String mApkName;
+    private ApkSigner mSigner;
     private PrintStream log;
 
     public ResourceApkBuilder(Configuration config, PrintStream log) {
@@ -43,10 +51,18 @@ public class ResourceApkBuilder {
         mApkName = apkname;
     }
 
-    public void buildApk(HashMap<String, Integer> compressData) throws IOException, InterruptedException {
+    public void buildApk(ApkDecoder decoder) throws IOException, InterruptedException {
+        HashMap<String, Integer> compressData = decoder.getCompressData();
         insureFileName();
-        generalUnsignApk(compressData);
-        signApk();
+        //写apk的时候顺便算好每一项的摘要，写完直接追加签名，不需要先生成没签名的apk
+        mSigner = config.mUseSignAPk ? new ApkSigner(config.mSignKey, config.mStoreAlias) : null;
+        File apkFile = mSigner != null ? mSignedApk : mUnSignedApk;
+        if (config.mUseStreaming) {
+            generalApkStreaming(apkFile, decoder.getApkZipFile(), decoder.getResFileMapping(), compressData,
+                decoder.getWorkDirectory());
+        } else {
+            generalApk(apkFile, compressData, decoder.getRawResFileCount());
+        }
         use7zApk(compressData);
         alignApk();
         
@@ -54,12 +70,10 @@ public class ResourceApkBuilder {
 
     private void insureFileName() {
         mUnSignedApk = new File(mOutDir, mApkName + "_unsigned.apk");
-        //需要自己安装7zip
         mSignedWith7ZipApk = new File(mOutDir, mApkName + "_signed_7zip.apk");
         mSignedApk = new File(mOutDir, mApkName + "_signed.apk");
         mAlignedApk = new File(mOutDir, mApkName + "_signed_aligned.apk");
         mAlignedWith7ZipApk = new File(mOutDir, mApkName + "_signed_7zip_aligned.apk");
-        m7zipOutPutDir = new File(mOutDir, TypedValue.OUT_7ZIP_FILE_PATH);
     }
 
     private void use7zApk(HashMap<String, Integer> compressData) throws IOException, InterruptedException {
@@ -75,102 +89,52 @@ public class ResourceApkBuilder {
                     "you must fill the sign data in the config file path=%s", mSignedApk.getAbsolutePath())
             );
         }
-        log.printf("use 7zip to repackage: %s, will cost much more time\n", mSignedWith7ZipApk.getName());
-        FileOperation.unZipAPk(mSignedApk.getAbsolutePath(), m7zipOutPutDir.getAbsolutePath());
-        //首先一次性生成一个全部都是压缩的安装包
-        generalRaw7zip();
-
-        ArrayList<String> storedFiles = new ArrayList<String>();
-        //对于不压缩的要update回去
-        for (String name : compressData.keySet()) {
-            File file = new File(m7zipOutPutDir.getAbsolutePath() + File.separator + name);
-            if (!file.exists()) {
-                continue;
-            }
-            int method = compressData.get(name);
-            if (method == TypedValue.ZIP_STORED) {
-                storedFiles.add(name);
-            }
-        }
-
-        addStoredFileIn7Zip(storedFiles);
+        log.printf("use max compression to repackage: %s\n", mSignedWith7ZipApk.getName());
+        //以前是解压出来再调7za，现在直接在进程里面多线程压缩
+        new ParallelDeflater(config.mWorkerThreads).repackage(mSignedApk, mSignedWith7ZipApk, compressData);
 
         if (!mSignedWith7ZipApk.exists()) {
             throw new IOException(String.format(
-                "7z repackage signed apk fail,you must install 7z command line version first, linux: p7zip, window: 7za, path=%s",
-                mSignedWith7ZipApk.getAbsolutePath()));
+                "repackage signed apk fail, path=%s", mSignedWith7ZipApk.getAbsolutePath()));
         }
     }
 
-    private void signApk() throws IOException, InterruptedException {
-        //尝试去对apk签名
-        if (config.mUseSignAPk) {
-            log.printf("signing apk: %s\n", mSignedApk.getName());
-            if (mSignedApk.exists()) {
-                mSignedApk.delete();
-            }
-
-            String cmd = "jarsigner -sigalg MD5withRSA -digestalg SHA1 -keystore " + config.mSignatureFile
-                + " -storepass " + config.mStorePass
-                + " -keypass " + config.mKeyPass
-                + " -signedjar " + mSignedApk.getAbsolutePath()
-                + " " + mUnSignedApk.getAbsolutePath()
-                + " " + config.mStoreAlias;
-            Process pro;
-            pro = Runtime.getRuntime().exec(cmd);
-            //destroy the stream
-            pro.waitFor();
-            pro.destroy();
-
-            if (!mSignedApk.exists()) {
-                throw new IOException(
-                    String.format("can not found the signed apk file, is the input sign data correct? path=%s",
-                        mSignedApk.getAbsolutePath())
-                );
-            }
-        }
-    }
-
-    private void alignApk() throws IOException, InterruptedException {
+    private void alignApk() throws IOException {
         //如果不签名就肯定不需要对齐了
         if (!config.mUseSignAPk) {
             return;
         }
+        if (!mSignedApk.exists() && !mSignedWith7ZipApk.exists()) {
+            throw new IOException("can not found any signed apk file");
+        }
+        //签名后的apk都是我们自己写的，写的时候已经对齐了，直接改名就可以
         if (mSignedWith7ZipApk.exists()) {
-            if (mSignedApk.exists()) {
-                alignApk(mSignedApk, mAlignedApk);
-            }
             alignApk(mSignedWith7ZipApk, mAlignedWith7ZipApk);
-        } else if (mSignedApk.exists()) {
+        }
+        if (mSignedApk.exists()) {
             alignApk(mSignedApk, mAlignedApk);
-        } else {
-            throw new IOException("can not found any signed apk file");
         }
     }
 
-    private void alignApk(File before, File after) throws IOException, InterruptedException {
-        log.printf("zipaligning apk: %s\n", before.getName());
-        if (!before.exists()) {
-            throw new IOException(String.format(
-                "can not found the raw apk file to zipalign, path=%s",
-                before.getAbsolutePath()));
+    private void alignApk(File before, File after) throws IOException {
+        log.printf("signed apk is already aligned: %s\n", before.getName());
+        if (after.exists()) {
+            after.delete();
+        }
+        if (!before.renameTo(after)) {
+            FileOperation.copyFileUsingStream(before, after);
+            before.delete();
         }
-        String cmd = Utils.isPresent(config.mZipalignPath) ? config.mZipalignPath : TypedValue.COMMAND_ZIPALIGIN;
-        cmd += " 4 " + before.getAbsolutePath() + " " + after.getAbsolutePath();
-        Process pro;
-        pro = Runtime.getRuntime().exec(cmd);
-        //destroy the stream
-        pro.waitFor();
-        pro.destroy();
         if (!after.exists()) {
             throw new IOException(
-                String.format("can not found the aligned apk file, the ZipAlign path is correct? path=%s", mAlignedApk.getAbsolutePath())
+                String.format("can not found the aligned apk file, path=%s", after.getAbsolutePath())
             );
         }
     }
 
-    private void generalUnsignApk(HashMap<String, Integer> compressData) throws IOException, InterruptedException {
-        log.printf("general unsigned apk: %s\n", mUnSignedApk.getName());
+    private void generalApk(File apkFile, HashMap<String, Integer> compressData, long rawResCount)
+        throws IOException, InterruptedException {
+        log.printf("general %s apk: %s\n", mSigner != null ? "signed" : "unsigned", apkFile.getName());
         File tempOutDir = new File(mOutDir.getAbsolutePath(), TypedValue.UNZIP_FILE_PATH);
         if (!tempOutDir.exists()) {
             log.printf("Missing apk unzip files, path=%s\n", tempOutDir.getAbsolutePath());
@@ -197,8 +161,10 @@ public class ResourceApkBuilder {
          * NOTE:文件数量应该是一样的，如果不一样肯定有问题
          */
         File rawResDir = new File(tempOutDir.getAbsolutePath() + File.separator + "res");
-        log.printf("DestResDir %d rawResDir %d\n", FileOperation.getlist(destResDir), FileOperation.getlist(rawResDir));
-        if (FileOperation.getlist(destResDir) != FileOperation.getlist(rawResDir)) {
+        //混淆的时候res下面的文件已经移到了r，这里用解压时的数量比较
+        long destResCount = FileOperation.getlist(destResDir);
+        log.printf("DestResDir %d rawResDir %d\n", destResCount, rawResCount);
+        if (destResCount != rawResCount) {
             throw new IOException(String.format(
                 "the file count of %s, and the file count of %s is not equal, there must be some problem\n",
                 rawResDir.getAbsolutePath(), destResDir.getAbsolutePath()));
@@ -215,77 +181,105 @@ public class ResourceApkBuilder {
             throw new IOException(String.format("Missing resources.arsc files, path=%s\n", tempOutDir.getAbsolutePath()));
         }
         collectFiles.add(rawARSCFile);
-        FileOperation.zipFiles(collectFiles, mUnSignedApk, compressData);
+        FileOperation.zipFiles(collectFiles, apkFile, compressData, mSigner);
 
-        if (!mUnSignedApk.exists()) {
+        if (!apkFile.exists()) {
             throw new IOException(String.format(
-                "can not found the unsign apk file path=%s",
-                mUnSignedApk.getAbsolutePath()));
+                "can not found the apk file path=%s",
+                apkFile.getAbsolutePath()));
         }
     }
 
-    private void addStoredFileIn7Zip(ArrayList<String> storedFiles) throws IOException, InterruptedException {
-        log.printf("rewrite the stored file into the 7zip, file count:%d\n", storedFiles.size());
-
-        String storedParentName = mOutDir.getAbsolutePath() + File.separator + "storefiles" + File.separator;
-        String outputName = m7zipOutPutDir.getAbsolutePath() + File.separator;
-        for (String name : storedFiles) {
-            FileOperation.copyFileUsingStream(new File(outputName + name), new File(storedParentName + name));
-
+    /**
+     * 不经过temp和r目录，直接从原apk读取每一项，按混淆后的名字写入新的apk。
+     * 压缩方式没有变的项直接拷贝压缩后的数据，不需要解压再压缩
+     */
+    private void generalApkStreaming(File outFile, RawZipFile apkFile, Map<String, String> resFileMapping,
+                                     HashMap<String, Integer> compressData, Directory workDir) throws IOException {
+        log.printf("general %s apk from stream: %s\n", mSigner != null ? "signed" : "unsigned", outFile.getName());
+        //新的resources.arsc在工作目录里，小的apk就在内存里
+        if (!workDir.containsFile("resources.arsc")) {
+            log.printf("Missing resources.arsc files in work directory\n");
+            throw new IOException("Missing resources.arsc files in work directory\n");
         }
-        Process pro = null;
-
-        storedParentName = storedParentName + File.separator + "*";
-
-        //极限压缩
-        String cmd = Utils.isPresent(config.m7zipPath) ? config.m7zipPath : TypedValue.COMMAND_7ZIP;
-        cmd += " a -tzip " + mSignedWith7ZipApk.getAbsolutePath() + " " + storedParentName + " -mx0";
-        pro = Runtime.getRuntime().exec(cmd);
-
-        InputStreamReader ir;
-        LineNumberReader input;
-        ir = new InputStreamReader(pro.getInputStream());
-        input = new LineNumberReader(ir);
+        String metaPrefix = config.mMetaName + "/";
+
+        RawZipOutputStream zipout = new RawZipOutputStream(outFile);
+        zipout.setSigner(mSigner);
+        try {
+            int rawResCount = 0;
+            int rawCopyCount = 0;
+            for (RawZipEntry entry : apkFile.getEntries()) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                String name = FileOperation.getCompatibleName(entry.getName());
+                if (name.startsWith(metaPrefix) || name.equals("resources.arsc")) {
+                    continue;
+                }
+                if (name.startsWith("res/")) {
+                    rawResCount++;
+                    /**
+                     * NOTE:文件数量应该是一样的，如果不一样肯定有问题
+                     */
+                    String result = resFileMapping.get(name);
+                    if (result == null) {
+                        throw new IOException(String.format(
+                            "the file count of res, and the file count of %s is not equal, there must be some problem, " +
+                                "can not found the proguard file of %s\n",
+                            config.mKeepRoot ? "res" : TypedValue.RES_FILE_PATH, name));
+                    }
+                    name = result;
+                }
+                if (!compressData.containsKey(name)) {
+                    throw new IOException(String.format("do not have the compress data path=%s", name));
+                }
+                int method = compressData.get(name);
+                if (method == entry.getMethod()) {
+                    zipout.copyEntry(apkFile, entry, name);
+                    rawCopyCount++;
+                } else {
+                    zipout.putNextEntry(name, method);
+                    writeStream(apkFile.getInputStream(entry), zipout);
+                    zipout.closeEntry();
+                }
+            }
+            log.printf("DestResDir %d rawResDir %d, raw copied entries %d\n", resFileMapping.size(), rawResCount, rawCopyCount);
 
-        //如果不读会有问题，被阻塞
-        while (input.readLine() != null) {
-            ;
+            if (!compressData.containsKey("resources.arsc")) {
+                throw new IOException("do not have the compress data path=resources.arsc");
+            }
+            zipout.putNextEntry("resources.arsc", compressData.get("resources.arsc"));
+            try {
+                writeStream(workDir.getFileInput("resources.arsc"), zipout);
+            } catch (DirectoryException ex) {
+                throw new IOException(ex);
+            }
+            zipout.closeEntry();
+            if (mSigner != null) {
+                log.printf("signing apk: %s\n", outFile.getName());
+                mSigner.sign(zipout);
+            }
+        } finally {
+            zipout.close();
         }
 
-        //destroy the stream
-        if (pro != null) {
-            pro.waitFor();
-            pro.destroy();
+        if (!outFile.exists()) {
+            throw new IOException(String.format(
+                "can not found the apk file path=%s",
+                outFile.getAbsolutePath()));
         }
     }
 
-    private void generalRaw7zip() throws IOException, InterruptedException {
-        log.printf("general the raw 7zip file\n");
-        Process pro;
-        String outPath = m7zipOutPutDir.getAbsoluteFile().getAbsolutePath();
-
-        String path = outPath + File.separator + "*";
-
-        //极限压缩
-        String cmd = Utils.isPresent(config.m7zipPath) ? config.m7zipPath : TypedValue.COMMAND_7ZIP;
-        cmd += " a -tzip " + mSignedWith7ZipApk.getAbsolutePath() + " " + path + " -mx9";
-        pro = Runtime.getRuntime().exec(cmd);
-
-        InputStreamReader ir = null;
-        LineNumberReader input = null;
-
-        ir = new InputStreamReader(pro.getInputStream());
-
-        input = new LineNumberReader(ir);
-
-        //如果不读会有问题，被阻塞
-        while (input.readLine() != null) {
-            ;
-        }
-        //destroy the stream
-        if (pro != null) {
-            pro.waitFor();
-            pro.destroy();
+    private static void writeStream(InputStream is, OutputStream os) throws IOException {
+        try {
+            byte[] buffer = new byte[BUFFER];
+            int length;
+            while ((length = is.read(buffer)) != -1) {
+                os.write(buffer, 0, length);
+            }
+        } finally {
+            is.close();
         }
     }
 }
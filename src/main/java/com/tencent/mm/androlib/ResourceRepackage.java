@@ -1,31 +1,23 @@
 package com.tencent.mm.androlib;
 
 import com.tencent.mm.util.FileOperation;
-import com.tencent.mm.util.TypedValue;
-import com.tencent.mm.util.Utils;
+import com.tencent.mm.zip.ParallelDeflater;
+import com.tencent.mm.zip.RawZipEntry;
+import com.tencent.mm.zip.RawZipFile;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
-import java.util.ArrayList;
 import java.util.HashMap;
 
 public class ResourceRepackage {
 
-    private final String zipalignPath;
-    private final String sevenZipPath;
     private File mSignedApk;
     private File mSignedWith7ZipApk;
     private File mAlignedWith7ZipApk;
-    private File m7zipOutPutDir;
-    private File mStoredOutPutDir;
     private       String mApkName;
     private       File   mOutDir;
 
-    public ResourceRepackage(String zipalignPath, String zipPath, File signedFile) {
-        this.zipalignPath = zipalignPath;
-        this.sevenZipPath = zipPath;
+    public ResourceRepackage(File signedFile) {
         mSignedApk = signedFile;
     }
 
@@ -33,7 +25,7 @@ public class ResourceRepackage {
         mOutDir = outDir;
     }
 
-    public void repackageApk() throws IOException, InterruptedException {
+    public void repackageApk() throws IOException {
         insureFileName();
 
         repackageWith7z();
@@ -42,9 +34,6 @@ public class ResourceRepackage {
     }
 
     private void deleteUnusedFiles() {
-        //删除目录
-        FileOperation.deleteDir(m7zipOutPutDir);
-        FileOperation.deleteDir(mStoredOutPutDir);
         if (mSignedWith7ZipApk.exists()) {
             mSignedWith7ZipApk.delete();
         }
@@ -63,7 +52,6 @@ public class ResourceRepackage {
                     ", path=%s",
                 mSignedApk.getAbsolutePath()));
         }
-        //需要自己安装7zip
         String apkBasename = mSignedApk.getName();
         mApkName = apkBasename.substring(0, apkBasename.indexOf(".apk"));
         //如果外面设过，就不用设了
@@ -74,117 +62,55 @@ public class ResourceRepackage {
         mSignedWith7ZipApk = new File(mOutDir.getAbsolutePath() + File.separator + mApkName + "_channel_7zip.apk");
         mAlignedWith7ZipApk = new File(mOutDir.getAbsolutePath() + File.separator + mApkName + "_channel_7zip_aligned.apk");
 
-        m7zipOutPutDir = new File(mOutDir.getAbsolutePath() + File.separator + TypedValue.OUT_7ZIP_FILE_PATH);
-        mStoredOutPutDir = new File(mOutDir.getAbsolutePath() + File.separator + "storefiles");
-        //删除目录,因为之前的方法是把整个输出目录都删除，所以不会有问题，现在不会，所以要单独删
-        FileOperation.deleteDir(m7zipOutPutDir);
-        FileOperation.deleteDir(mStoredOutPutDir);
+        //删除文件,因为之前的方法是把整个输出目录都删除，所以不会有问题，现在不会，所以要单独删
         FileOperation.deleteDir(mSignedWith7ZipApk);
         FileOperation.deleteDir(mAlignedWith7ZipApk);
     }
 
-    private void repackageWith7z() throws IOException, InterruptedException {
-        System.out.printf("use 7zip to repackage: %s, will cost much more time\n", mSignedWith7ZipApk.getName());
-        HashMap<String, Integer> compressData = FileOperation.unZipAPk(mSignedApk.getAbsolutePath(), m7zipOutPutDir.getAbsolutePath());
-        //首先一次性生成一个全部都是压缩的安装包
-        generalRaw7zip();
-
-        ArrayList<String> storedFiles = new ArrayList<String>();
-        //对于不压缩的要update回去
-        for (String name : compressData.keySet()) {
-            File file = new File(m7zipOutPutDir.getAbsolutePath() + File.separator + name);
-            if (!file.exists()) {
-                continue;
-            }
-            int method = compressData.get(name);
-            if (method == TypedValue.ZIP_STORED) {
-                storedFiles.add(name);
+    private void repackageWith7z() throws IOException {
+        System.out.printf("use max compression to repackage: %s\n", mSignedWith7ZipApk.getName());
+        //原来不压缩的项保持不压缩
+        HashMap<String, Integer> compressData = new HashMap<String, Integer>();
+        RawZipFile zipFile = new RawZipFile(mSignedApk);
+        try {
+            for (RawZipEntry entry : zipFile.getEntries()) {
+                compressData.put(entry.getName(), entry.getMethod());
             }
+        } finally {
+            zipFile.close();
         }
-
-        addStoredFileIn7Zip(storedFiles);
+        if (!mOutDir.exists()) {
+            mOutDir.mkdirs();
+        }
+        new ParallelDeflater(0).repackage(mSignedApk, mSignedWith7ZipApk, compressData);
 
         if (!mSignedWith7ZipApk.exists()) {
             throw new IOException(String.format(
-                "7z repackage signed apk fail,you must install 7z command line version first, linux: p7zip, window: 7za, path=%s",
-                mSignedWith7ZipApk.getAbsolutePath())
+                "repackage signed apk fail, path=%s", mSignedWith7ZipApk.getAbsolutePath())
             );
         }
     }
 
-    private void generalRaw7zip() throws IOException, InterruptedException {
-        System.out.printf("general the raw 7zip file\n");
-        Process pro;
-        String outPath = m7zipOutPutDir.getAbsoluteFile().getAbsolutePath();
-
-        String path = outPath + File.separator + "*";
-
-        String cmd = Utils.isPresent(sevenZipPath) ? sevenZipPath : TypedValue.COMMAND_7ZIP;
-        cmd += " a -tzip " + mSignedWith7ZipApk.getAbsolutePath() + " " + path + " -mx9";
-        pro = Runtime.getRuntime().exec(cmd);
-
-        InputStreamReader ir = new InputStreamReader(pro.getInputStream());
-        LineNumberReader input = new LineNumberReader(ir);
-        //如果不读会有问题，被阻塞
-        while (input.readLine() != null) {
-            ;
-        }
-        //destroy the stream
-        if (pro != null) {
-            pro.waitFor();
-            pro.destroy();
-        }
-    }
-
-    private void addStoredFileIn7Zip(ArrayList<String> storedFiles) throws IOException, InterruptedException {
-        System.out.printf("rewrite the stored file into the 7zip, file count:%d\n", storedFiles.size());
-        String storedParentName = mStoredOutPutDir.getAbsolutePath() + File.separator;
-        String outputName = m7zipOutPutDir.getAbsolutePath() + File.separator;
-        for (String name : storedFiles) {
-            FileOperation.copyFileUsingStream(new File(outputName + name), new File(storedParentName + name));
-
-        }
-        storedParentName = storedParentName + File.separator + "*";
-
-        //极限压缩
-        String cmd = Utils.isPresent(sevenZipPath) ? sevenZipPath : TypedValue.COMMAND_7ZIP;
-        cmd += " a -tzip " + mSignedWith7ZipApk.getAbsolutePath() + " " + storedParentName + " -mx0";
-        Process pro = Runtime.getRuntime().exec(cmd);
-        InputStreamReader ir = new InputStreamReader(pro.getInputStream());
-        ;
-        LineNumberReader input = new LineNumberReader(ir);
-        ;
-        //如果不读会有问题，被阻塞
-        while (input.readLine() != null) {
-            ;
-        }
-        //destroy the stream
-        if (pro != null) {
-            pro.waitFor();
-            pro.destroy();
-        }
-    }
-
-    private void alignApk() throws IOException, InterruptedException {
+    private void alignApk() throws IOException {
         if (mSignedWith7ZipApk.exists()) {
             alignApk(mSignedWith7ZipApk, mAlignedWith7ZipApk);
         }
     }
 
-    private void alignApk(File before, File after) throws IOException, InterruptedException {
-        System.out.printf("zipaligning apk: %s\n", before.getName());
+    private void alignApk(File before, File after) throws IOException {
+        //重新压缩的时候已经对齐了，直接改名就可以
+        System.out.printf("repackaged apk is already aligned: %s\n", before.getName());
         if (!before.exists()) {
             throw new IOException(
                 String.format("can not found the raw apk file to zipalign, path=%s", before.getAbsolutePath())
             );
         }
-        String cmd = Utils.isPresent(zipalignPath) ? zipalignPath : TypedValue.COMMAND_ZIPALIGIN;
-        cmd += " 4 " + before.getAbsolutePath() + " " + after.getAbsolutePath();
-        Process pro;
-        pro = Runtime.getRuntime().exec(cmd);
-
-        //destroy the stream
-        pro.waitFor();
-        pro.destroy();
+        if (after.exists()) {
+            after.delete();
+        }
+        if (!before.renameTo(after)) {
+            FileOperation.copyFileUsingStream(before, after);
+            before.delete();
+        }
     }
 }
@@ -1,8 +1,7 @@
 package com.tencent.mm.androlib.res.data;
 
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
-import java.util.Map;
 
 
 /**
@@ -11,13 +10,17 @@ import java.util.Map;
 public class ResPackage {
     private final String mName;
 
-    private final Map<Integer, String> mSpecNamesReplace;
-    private final HashSet<String>      mSpecNamesBlock;
+    /**
+     * 同一个package里面resId的高8位都一样，按type id和entry id放到二维数组里，
+     * 不需要为每个id装箱，也不需要hash节点
+     */
+    private final String[][]      mSpecNamesReplace;
+    private final HashSet<String> mSpecNamesBlock;
     private boolean mCanProguard = false;
 
     public ResPackage(int id, String name) {
         this.mName = name;
-        mSpecNamesReplace = new LinkedHashMap<Integer, String>();
+        mSpecNamesReplace = new String[256][];
         mSpecNamesBlock   = new HashSet<String>();
     }
 
@@ -29,17 +32,29 @@ public class ResPackage {
         mCanProguard = set;
     }
 
-    public boolean hasSpecRepplace(String resID) {
-        return mSpecNamesReplace.containsKey(resID);
+    public boolean hasSpecRepplace(int resID) {
+        return getSpecRepplace(resID) != null;
     }
 
     public String getSpecRepplace(int resID) {
-        return mSpecNamesReplace.get(resID);
+        String[] entries = mSpecNamesReplace[(resID >> 16) & 0xff];
+        int entryId = resID & 0xffff;
+        return entries != null && entryId < entries.length ? entries[entryId] : null;
     }
 
 
     public void putSpecNamesReplace(int resID, String value) {
-        mSpecNamesReplace.put(resID, value);
+        int typeId = (resID >> 16) & 0xff;
+        int entryId = resID & 0xffff;
+        String[] entries = mSpecNamesReplace[typeId];
+        if (entries == null) {
+            entries = new String[Math.max(entryId + 1, 16)];
+            mSpecNamesReplace[typeId] = entries;
+        } else if (entryId >= entries.length) {
+            entries = Arrays.copyOf(entries, Math.max(entryId + 1, entries.length * 2));
+            mSpecNamesReplace[typeId] = entries;
+        }
+        entries[entryId] = value;
     }
 
     public void putSpecNamesblock(String value) {
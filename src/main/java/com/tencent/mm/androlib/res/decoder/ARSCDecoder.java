@@ -1,43 +1,42 @@
 package com.tencent.mm.androlib.res.decoder;
 
-import com.mindprod.ledatastream.LEDataInputStream;
-import com.mindprod.ledatastream.LEDataOutputStream;
 import com.tencent.mm.androlib.AndrolibException;
 import com.tencent.mm.androlib.ApkDecoder;
 import com.tencent.mm.androlib.res.data.ResPackage;
 import com.tencent.mm.androlib.res.data.ResType;
+import com.tencent.mm.directory.DirectoryException;
 import com.tencent.mm.resourceproguard.Configuration;
+import com.tencent.mm.resourceproguard.WhiteListMatcher;
+import com.tencent.mm.util.ByteBufferDataInput;
+import com.tencent.mm.util.ByteBufferDataOutput;
 import com.tencent.mm.util.ExtDataInput;
 import com.tencent.mm.util.ExtDataOutput;
 import com.tencent.mm.util.FileOperation;
 import com.tencent.mm.util.TypedValue;
 import com.tencent.mm.util.Utils;
 
-import java.io.BufferedWriter;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.Writer;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 
 /**
+ * resources.arsc只解析一遍：先读出所有package/type/entry的位置和spec名字，
+ * 然后在这份数据上做混淆，最后直接从内存里的原始数据拷贝生成新的resources.arsc
+ *
  * @author shwenzhang
  */
 public class ARSCDecoder {
@@ -47,18 +46,19 @@ public class ARSCDecoder {
     private static final Logger LOGGER             = Logger.getLogger(ARSCDecoder.class.getName());
     private static final int    KNOWN_CONFIG_BYTES = 38;
 
-    public static Map<Integer, String> mTableStringsProguard = new LinkedHashMap<Integer, String>();
-
-    private ExtDataInput  mIn;
-    private ExtDataOutput mOut;
-    private Header        mHeader;
-    private StringBlock   mTableStrings;
-    private StringBlock   mTypeNames;
-    private StringBlock   mSpecNames;
-    private ResPackage    mPkg;
-    private ResType       mType;
-    private ResPackage[]  mPkgs;
-    private int[]         mPkgsLenghtChange;
+    private final byte[]              mData;
+    private final ByteBufferDataInput mInput;
+    private       ExtDataInput        mIn;
+    private       ExtDataOutput       mOut;
+    private       Header              mHeader;
+    private       StringBlock         mTableStrings;
+    private       StringBlock         mTypeNames;
+    private       StringBlock         mSpecNames;
+    private       ResPackage          mPkg;
+    private       ResType             mType;
+    private       ResPackage[]        mPkgs;
+    private       PackageChunk[]      mPkgChunks;
+    private       int[]               mPkgsLenghtChange;
     private int mTableLenghtChange = 0;
     private int mResId;
     private int mCurTypeID    = -1;
@@ -67,73 +67,63 @@ public class ARSCDecoder {
 
     private ProguardStringBuilder mProguardBuilder;
     private boolean mShouldProguardForType = false;
-    private       Writer               mMappingWriter;
-    private final Map<String, String>  mOldFileName;
-    private final Map<String, Integer> mCurSpecNameToPos;
-    private final HashSet<String>      mShouldProguardTypeSet;
-    private final ApkDecoder           mApkDecoder;
-
-
-    private ARSCDecoder(InputStream arscStream, ApkDecoder decoder) throws AndrolibException, IOException {
+    private WhiteListMatcher mWhiteListMatcher;
+    private Map<String, String> mKeepMapping;
+    private       ResMappingWriter              mMappingWriter;
+    private final Map<String, String>           mOldFileName;
+    private final Map<String, Integer>          mCurSpecNameToPos;
+    private final HashSet<String>               mShouldProguardTypeSet;
+    private final HashMap<Integer, Set<String>> mExistTypeNames;
+    //每次混淆都是一个新的decoder，这些状态不能是static的，否则同一个jvm里面同时跑的任务会互相影响
+    private final Map<Integer, String>          mTableStringsProguard;
+    private final ApkDecoder                    mApkDecoder;
+    private final PrintStream                   mLog;
+
+
+    private ARSCDecoder(byte[] arscData, ApkDecoder decoder) throws AndrolibException, IOException {
         mOldFileName = new LinkedHashMap<String, String>();
         mCurSpecNameToPos = new LinkedHashMap<String, Integer>();
         mShouldProguardTypeSet = new HashSet<String>();
-        mIn = new ExtDataInput(new LEDataInputStream(arscStream));
+        mExistTypeNames = new HashMap<Integer, Set<String>>();
+        mTableStringsProguard = new LinkedHashMap<Integer, String>();
+        mData = arscData;
+        mInput = new ByteBufferDataInput(arscData);
+        mIn = new ExtDataInput(mInput);
         mApkDecoder = decoder;
+        mLog = decoder.getLog();
         proguardFileName();
     }
 
-    private ARSCDecoder(InputStream arscStream, ApkDecoder decoder, ResPackage[] pkgs) throws FileNotFoundException {
-        mOldFileName = new LinkedHashMap<String, String>();
-        mCurSpecNameToPos = new LinkedHashMap<String, Integer>();
-        mShouldProguardTypeSet = new HashSet<String>();
-        mApkDecoder = decoder;
-        mIn = new ExtDataInput(new LEDataInputStream(arscStream));
-        mOut = new ExtDataOutput(new LEDataOutputStream(new FileOutputStream(mApkDecoder.getOutTempARSCFile(), false)));
-        mPkgs = pkgs;
-        mPkgsLenghtChange = new int[pkgs.length];
-    }
-
-    public static ResPackage[] decode(InputStream arscStream, ApkDecoder apkDecoder
-    )
-        throws AndrolibException {
-        try {
-            ARSCDecoder decoder = new ARSCDecoder(arscStream, apkDecoder);
-            ResPackage[] pkgs = decoder.readTable();
-
-            return pkgs;
-        } catch (IOException ex) {
-            throw new AndrolibException("Could not decode arsc file", ex);
-        }
-    }
-
-    public static void write(InputStream arscStream,
-                             ApkDecoder decoder, ResPackage[] pkgs)
+    public static ResPackage[] decode(byte[] arscData, ApkDecoder apkDecoder)
         throws AndrolibException {
         try {
-            ARSCDecoder writer = new ARSCDecoder(arscStream, decoder, pkgs);
-            writer.writeTable();
-
+            ARSCDecoder decoder = new ARSCDecoder(arscData, apkDecoder);
+            decoder.readTable();
+            decoder.proguardTable();
+            decoder.writeTable();
+            return decoder.mPkgs;
         } catch (IOException ex) {
             throw new AndrolibException("Could not decode arsc file", ex);
         }
     }
 
     private void proguardFileName() throws IOException, AndrolibException {
-        mMappingWriter = new BufferedWriter(new FileWriter(mApkDecoder.getResMappingFile(), false));
+        mMappingWriter = new ResMappingWriter(mApkDecoder.getResMappingFile());
 
         mProguardBuilder = new ProguardStringBuilder();
         mProguardBuilder.reset();
 
         final Configuration config = mApkDecoder.getConfig();
 
-        File rawResFile = mApkDecoder.getRawResFile();
-
-        File[] resFiles = rawResFile.listFiles();
+        Set<String> resFiles;
+        try {
+            resFiles = mApkDecoder.getRawResDirNames();
+        } catch (DirectoryException ex) {
+            throw new AndrolibException(ex);
+        }
 
         //需要看看哪些类型是要混淆文件路径的
-        for (File resFile : resFiles) {
-            String raw = resFile.getName();
+        for (String raw : resFiles) {
             if (raw.contains("-")) {
                 raw = raw.substring(0, raw.indexOf("-"));
             }
@@ -143,7 +133,7 @@ public class ARSCDecoder {
         if (!config.mKeepRoot) {
             //需要保持之前的命名方式
             if (config.mUseKeepMapping) {
-                HashMap<String, String> fileMapping = config.mOldFileMapping;
+                Map<String, String> fileMapping = config.mOldMapping.getFileMapping();
                 List<String> keepFileNames = new ArrayList<String>();
                 //这里面为了兼容以前，也需要用以前的文件名前缀，即res混淆成什么
                 String resRoot = null;
@@ -160,19 +150,19 @@ public class ARSCDecoder {
                 //去掉所有之前保留的命名，为了简单操作，mapping里面有的都去掉
                 mProguardBuilder.removeStrings(keepFileNames);
 
-                for (File resFile : resFiles) {
-                    String raw = "res" + "/" + resFile.getName();
+                for (String resFile : resFiles) {
+                    String raw = "res" + "/" + resFile;
                     if (fileMapping.containsKey(raw)) {
                         mOldFileName.put(raw, fileMapping.get(raw));
                     } else {
-                        System.out.printf("can not find the file mapping %s\n", raw);
+                        mLog.printf("can not find the file mapping %s\n", raw);
                         mOldFileName.put(raw, resRoot + "/" + mProguardBuilder.getReplaceString());
                     }
                 }
             } else {
-                for (int i = 0; i < resFiles.length; i++) {
+                for (String resFile : resFiles) {
                     //这里也要用linux的分隔符,如果普通的话，就是r
-                    mOldFileName.put("res" + "/" + resFiles[i].getName(), TypedValue.RES_FILE_PATH + "/" + mProguardBuilder.getReplaceString());
+                    mOldFileName.put("res" + "/" + resFile, TypedValue.RES_FILE_PATH + "/" + mProguardBuilder.getReplaceString());
                 }
             }
             generalFileResMapping();
@@ -181,84 +171,101 @@ public class ARSCDecoder {
         Utils.cleanDir(mApkDecoder.getOutResFile());
     }
 
-    private ResPackage[] readTable() throws IOException, AndrolibException {
+    private void readTable() throws IOException, AndrolibException {
         nextChunkCheckType(Header.TYPE_TABLE);
         int packageCount = mIn.readInt();
         mTableStrings = StringBlock.read(mIn);
-        ResPackage[] packages = new ResPackage[packageCount];
+        mPkgs = new ResPackage[packageCount];
+        mPkgChunks = new PackageChunk[packageCount];
+        mPkgsLenghtChange = new int[packageCount];
         nextChunk();
 
         for (int i = 0; i < packageCount; i++) {
-            packages[i] = readPackage();
+            mPkgChunks[i] = readPackage();
+            mPkgs[i] = mPkgChunks[i].pkg;
+        }
+    }
+
+    /**
+     * 在解析出来的数据上做混淆，顺序跟原来边读边混淆的时候一样，保证mapping不变
+     */
+    private void proguardTable() throws IOException, AndrolibException {
+        for (int i = 0; i < mPkgChunks.length; i++) {
+            PackageChunk chunk = mPkgChunks[i];
+            mPkg = chunk.pkg;
+            mSpecNames = chunk.specNames;
+            mCurTypeID = -1;
+            for (TypeChunk type : chunk.types) {
+                proguardType(type);
+            }
         }
-        System.out.printf("resources mapping file %s done\n", mApkDecoder.getResMappingFile().getAbsolutePath());
+        mLog.printf("resources mapping file %s done\n", mApkDecoder.getResMappingFile().getAbsolutePath());
         mMappingWriter.close();
-        return packages;
     }
 
     private void writeTable() throws IOException, AndrolibException {
-        System.out.printf("writing new resources.arsc \n");
+        mLog.printf("writing new resources.arsc \n");
+        ByteBufferDataOutput out = new ByteBufferDataOutput(mData.length);
+        mOut = new ExtDataOutput(out);
         mTableLenghtChange = 0;
-        writeNextChunkCheck(Header.TYPE_TABLE, 0);
-        int packageCount = mIn.readInt();
-        mOut.writeInt(packageCount);
-
-        mTableLenghtChange += StringBlock.writeTableNameStringBlock(mIn, mOut, mTableStringsProguard);
-        writeNextChunk(0);
-        if (packageCount != mPkgs.length) {
-            throw new AndrolibException(String.format(
-                "writeTable package count is different before %d, now %d", mPkgs.length, packageCount));
-        }
-        for (int i = 0; i < packageCount; i++) {
+        //table的header和package的个数
+        mOut.write(mData, 0, 12);
+        mLog.printf("resources.arsc Character Encoding: %s\n", mTableStrings.isUTF8() ? "utf-8" : "utf-16");
+        mTableLenghtChange += mTableStrings.writeTableNameStringBlock(mOut, mTableStringsProguard);
+        for (int i = 0; i < mPkgChunks.length; i++) {
             mCurPackageID = i;
-            writePackage();
+            int pkgStart = out.position();
+            writePackage(mPkgChunks[i]);
+            //string block的大小变了，需要把package的size改回去
+            patchChunkSize(out, pkgStart, mPkgsLenghtChange[i]);
         }
         //最后需要把整个的size重写回去
-        reWriteTable();
+        patchChunkSize(out, 0, mTableLenghtChange);
+
+        OutputStream os;
+        try {
+            os = mApkDecoder.getWorkDirectory().getFileOutput("resources.arsc");
+        } catch (DirectoryException ex) {
+            throw new AndrolibException(ex);
+        }
+        try {
+            out.writeTo(os);
+        } finally {
+            os.close();
+        }
+    }
+
+    private void patchChunkSize(ByteBufferDataOutput out, int chunkStart, int diffSize) throws AndrolibException {
+        int size = out.getInt(chunkStart + 4) - diffSize;
+        if (size <= 0) {
+            throw new AndrolibException(String.format(
+                "patchChunkSize size < 0: size=%d",
+                size));
+        }
+        out.putInt(chunkStart + 4, size);
     }
 
     private void generalFileResMapping() throws IOException {
-        mMappingWriter.write("res path mapping:\n");
+        mMappingWriter.writeFileMappingHeader();
         for (String raw : mOldFileName.keySet()) {
-            mMappingWriter.write("    " + raw + " -> " + mOldFileName.get(raw));
-            mMappingWriter.write("\n");
+            mMappingWriter.writeFileMapping(raw, mOldFileName.get(raw));
         }
-
-        mMappingWriter.write("\n\n");
-        mMappingWriter.write("res id mapping:\n");
-        mMappingWriter.flush();
+        mMappingWriter.writeIdMappingHeader();
     }
 
     private void generalResIDMapping(String packagename, String typename, String specname, String replace) throws IOException {
-        mMappingWriter.write("    " + packagename + ".R." + typename + "." + specname + " -> " + packagename + ".R." + typename + "." + replace);
-        mMappingWriter.write("\n");
-        mMappingWriter.flush();
+        mMappingWriter.writeIdMapping(packagename, typename, specname, replace);
     }
 
-    private void reWriteTable() throws AndrolibException, IOException {
-
-        mIn = new ExtDataInput(new LEDataInputStream(new FileInputStream(mApkDecoder.getOutTempARSCFile())));
-        mOut = new ExtDataOutput(new LEDataOutputStream(new FileOutputStream(mApkDecoder.getOutARSCFile(), false)));
-        writeNextChunkCheck(Header.TYPE_TABLE, mTableLenghtChange);
-        int packageCount = mIn.readInt();
-        mOut.writeInt(packageCount);
-        //add log
-        StringBlock.writeAll(mIn, mOut);
-
-        for (int i = 0; i < packageCount; i++) {
-            mCurPackageID = i;
-            writeNextChunk(mPkgsLenghtChange[mCurPackageID]);
-            mOut.writeBytes(mIn, mHeader.chunkSize - 8);
-        }
-        mApkDecoder.getOutTempARSCFile().delete();
-    }
-
-    private ResPackage readPackage() throws IOException, AndrolibException {
+    private PackageChunk readPackage() throws IOException, AndrolibException {
         checkChunkType(Header.TYPE_PACKAGE);
+        PackageChunk chunk = new PackageChunk();
+        chunk.start = mInput.position() - 8;
+        chunk.end = chunk.start + mHeader.chunkSize;
         int id = (byte) mIn.readInt();
         String name = mIn.readNulEndedString(128, true);
         //add log
-        System.out.printf("reading packagename %s\n", name);
+        mLog.printf("reading packagename %s\n", name);
 
         /* typeNameStrings */
         mIn.skipInt();
@@ -268,9 +275,11 @@ public class ARSCDecoder {
         mIn.skipInt();
         /* specNameCount */
         mIn.skipInt();
-        mCurTypeID = -1;
         mTypeNames = StringBlock.read(mIn);
+        chunk.specNamesStart = mInput.position();
         mSpecNames = StringBlock.read(mIn);
+        chunk.specNamesEnd = mInput.position();
+        chunk.specNames = mSpecNames;
         mResId = id << 24;
 
         mPkg = new ResPackage(id, name);
@@ -280,123 +289,125 @@ public class ARSCDecoder {
         } else {
             mPkg.setCanProguard(true);
         }
+        chunk.pkg = mPkg;
         nextChunk();
         while (mHeader.type == Header.TYPE_TYPE) {
-            readType();
+            chunk.types.add(readType());
         }
-        return mPkg;
+        return chunk;
     }
 
-    private void writePackage() throws IOException, AndrolibException {
-        checkChunkType(Header.TYPE_PACKAGE);
-        int id = (byte) mIn.readInt();
-        mOut.writeInt(id);
-        mResId = id << 24;
-        //char_16的，一共256byte
-        mOut.writeBytes(mIn, 256);
-        /* typeNameStrings */
-        mOut.writeInt(mIn.readInt());
-        /* typeNameCount */
-        mOut.writeInt(mIn.readInt());
-        /* specNameStrings */
-        mOut.writeInt(mIn.readInt());
-        /* specNameCount */
-        mOut.writeInt(mIn.readInt());
-        StringBlock.writeAll(mIn, mOut);
-
-        if (mPkgs[mCurPackageID].isCanProguard()) {
-            int specSizeChange = StringBlock.writeSpecNameStringBlock(
-                mIn,
+    /**
+     * package的头和type names直接拷贝，spec names重新生成，后面的type只需要改每个entry的specNamesId
+     */
+    private void writePackage(PackageChunk chunk) throws IOException, AndrolibException {
+        ResPackage pkg = chunk.pkg;
+        mOut.write(mData, chunk.start, chunk.specNamesStart - chunk.start);
+        int pos;
+        if (pkg.isCanProguard()) {
+            int specSizeChange = chunk.specNames.writeSpecNameStringBlock(
                 mOut,
-                mPkgs[mCurPackageID].getSpecNamesBlock(),
+                pkg.getSpecNamesBlock(),
                 mCurSpecNameToPos
             );
             mPkgsLenghtChange[mCurPackageID] += specSizeChange;
             mTableLenghtChange += specSizeChange;
+
+            pos = chunk.specNamesEnd;
+            for (TypeChunk type : chunk.types) {
+                for (EntryRecord entry : type.entries) {
+                    int specNamesId = mCurSpecNameToPos.get(pkg.getSpecRepplace(entry.resId));
+                    if (specNamesId < 0) {
+                        throw new AndrolibException(String.format(
+                            "writeEntry new specNamesId < 0 %d", specNamesId));
+                    }
+                    mOut.write(mData, pos, entry.specNamesOffset - pos);
+                    mOut.writeInt(specNamesId);
+                    pos = entry.specNamesOffset + 4;
+                }
+            }
         } else {
-            StringBlock.writeAll(mIn, mOut);
+            pos = chunk.specNamesStart;
         }
-        writeNextChunk(0);
-        while (mHeader.type == Header.TYPE_TYPE) {
-            writeType();
+        mOut.write(mData, pos, chunk.end - pos);
+    }
+
+    /**
+     * 白名单按package和type只查一次，后面每个entry直接用
+     */
+    private WhiteListMatcher getWhiteListMatcher() {
+        Configuration config = mApkDecoder.getConfig();
+        if (!mPkg.isCanProguard() || !config.mUseWhiteList) {
+            return null;
+        }
+        HashMap<String, WhiteListMatcher> typeMaps = config.mWhiteList.get(mPkg.getName());
+        return typeMaps != null ? typeMaps.get(mType.getName()) : null;
+    }
+
+    /**
+     * keep mapping也是按package和type只查一次
+     */
+    private Map<String, String> getKeepMapping() {
+        Configuration config = mApkDecoder.getConfig();
+        if (!mPkg.isCanProguard() || !config.mUseKeepMapping) {
+            return null;
         }
+        return config.mOldMapping.getResMapping(mPkg.getName(), mType.getName());
     }
 
     /**
      * 如果是保持mapping的话，需要去掉某部分已经用过的mapping
      */
     private void reduceFromOldMappingFile() {
-        if (mPkg.isCanProguard()) {
-            if (mApkDecoder.getConfig().mUseKeepMapping) {
-                // 判断是否走keepmapping
-                HashMap<String, HashMap<String, HashMap<String, String>>> resMapping = mApkDecoder.getConfig().mOldResMapping;
-                String packName = mPkg.getName();
-                if (resMapping.containsKey(packName)) {
-                    HashMap<String, HashMap<String, String>> typeMaps = resMapping.get(packName);
-                    String typeName = mType.getName();
-
-                    if (typeMaps.containsKey(typeName)) {
-                        HashMap<String, String> proguard = typeMaps.get(typeName);
-                        //去掉所有之前保留的命名，为了简单操作，mapping里面有的都去掉
-                        mProguardBuilder.removeStrings(proguard.values());
-                    }
-                }
-            }
+        if (mKeepMapping != null) {
+            //去掉所有之前保留的命名，为了简单操作，mapping里面有的都去掉
+            mProguardBuilder.removeStrings(mKeepMapping.values());
         }
     }
 
-    private void readType() throws AndrolibException, IOException {
+    private TypeChunk readType() throws AndrolibException, IOException {
         checkChunkType(Header.TYPE_TYPE);
         byte id = mIn.readByte();
         mIn.skipBytes(3);
         int entryCount = mIn.readInt();
 
-        if (mCurTypeID != id) {
-            mProguardBuilder.reset();
-            mCurTypeID = id;
-
-            Set<String> existNames = RawARSCDecoder.getExistTypeSpecNameStrings(mCurTypeID);
-            mProguardBuilder.removeStrings(existNames);
-        }
-        //是否混淆文件路径
-        mShouldProguardForType = isToProguardFile(mTypeNames.getString(id - 1));
-
         //对，这里是用来描述差异性的！！！
         /* flags */
         mIn.skipBytes(entryCount * 4);
         mResId = (0xff000000 & mResId) | id << 16;
-        mType = new ResType(mTypeNames.getString(id - 1), mPkg);
-
-        //如果是保持mapping的话，需要去掉某部分已经用过的mapping
-        reduceFromOldMappingFile();
+        TypeChunk type = new TypeChunk(id, mTypeNames.getString(id - 1));
 
         while (nextChunk().type == Header.TYPE_CONFIG) {
-            readConfig();
+            readConfig(type);
         }
-
-
+        return type;
     }
 
-    private void writeType() throws AndrolibException, IOException {
-        checkChunkType(Header.TYPE_TYPE);
-        byte id = mIn.readByte();
-        mOut.writeByte(id);
-        mResId = (0xff000000 & mResId) | id << 16;
-        mOut.writeBytes(mIn, 3);
-        int entryCount = mIn.readInt();
-        mOut.writeInt(entryCount);
-        //对，这里是用来描述差异性的！！！
-        ///* flags */mIn.skipBytes(entryCount * 4);
-        int[] entryOffsets = mIn.readIntArray(entryCount);
-        mOut.writeIntArray(entryOffsets);
+    private void proguardType(TypeChunk type) throws AndrolibException, IOException {
+        if (mCurTypeID != type.id) {
+            mProguardBuilder.reset();
+            mCurTypeID = type.id;
 
-        while (writeNextChunk(0).type == Header.TYPE_CONFIG) {
-            writeConfig();
+            Set<String> existNames = mExistTypeNames.get(mCurTypeID);
+            mProguardBuilder.removeStrings(existNames);
         }
+        //是否混淆文件路径
+        mShouldProguardForType = isToProguardFile(type.name);
+        mType = new ResType(type.name, mPkg);
+        mWhiteListMatcher = getWhiteListMatcher();
+        mKeepMapping = getKeepMapping();
+
+        //如果是保持mapping的话，需要去掉某部分已经用过的mapping
+        reduceFromOldMappingFile();
 
+        for (EntryRecord entry : type.entries) {
+            mResId = entry.resId;
+            mCurEntryID = entry.entryId;
+            proguardEntry(entry);
+        }
     }
 
-    private void readConfig() throws IOException, AndrolibException {
+    private void readConfig(TypeChunk type) throws IOException, AndrolibException {
         checkChunkType(Header.TYPE_CONFIG);
         /* typeId */
         mIn.skipInt();
@@ -405,35 +416,63 @@ public class ARSCDecoder {
         readConfigFlags();
         int[] entryOffsets = mIn.readIntArray(entryCount);
         for (int i = 0; i < entryOffsets.length; i++) {
-            mCurEntryID = i;
             if (entryOffsets[i] != -1) {
                 mResId = (mResId & 0xffff0000) | i;
-                readEntry();
+                readEntry(type, i);
             }
         }
     }
 
-    private void writeConfig() throws IOException, AndrolibException {
-        checkChunkType(Header.TYPE_CONFIG);
-        /* typeId */
-        mOut.writeInt(mIn.readInt());
-        /* entryCount */
-        int entryCount = mIn.readInt();
-        mOut.writeInt(entryCount);
-        /* entriesStart */
-        mOut.writeInt(mIn.readInt());
+    /**
+     * 只记录entry的信息，顺便收集每种type已经存在的名字，混淆的时候不能再用
+     */
+    private void readEntry(TypeChunk type, int entryId) throws IOException, AndrolibException {
+        /* size */
+        mIn.skipBytes(2);
+        short flags = mIn.readShort();
+        int specNamesOffset = mInput.position();
+        int specNamesId = mIn.readInt();
+        putTypeSpecNameStrings(type.id, mSpecNames.getString(specNamesId));
 
-        writeConfigFlags();
-        int[] entryOffsets = mIn.readIntArray(entryCount);
-        mOut.writeIntArray(entryOffsets);
+        EntryRecord entry = new EntryRecord(mResId, entryId, specNamesId, specNamesOffset);
+        if ((flags & ENTRY_FLAG_COMPLEX) == 0) {
+            /* size */
+            mIn.skipCheckShort((short) 8);
+            /* zero */
+            mIn.skipCheckByte((byte) 0);
+            entry.valueType = mIn.readByte();
+            entry.valueData = mIn.readInt();
+        } else {
+            entry.complex = true;
+            readComplexEntry();
+        }
+        type.entries.add(entry);
+    }
 
-        for (int i = 0; i < entryOffsets.length; i++) {
-            if (entryOffsets[i] != -1) {
-                mResId = (mResId & 0xffff0000) | i;
-                writeEntry();
-            }
+    private void readComplexEntry() throws IOException, AndrolibException {
+        /* parent */
+        mIn.skipInt();
+        int count = mIn.readInt();
+        for (int i = 0; i < count; i++) {
+            mIn.skipInt();
+            /* size */
+            mIn.skipCheckShort((short) 8);
+            /* zero */
+            mIn.skipCheckByte((byte) 0);
+            /* type */
+            mIn.skipBytes(1);
+            /* data */
+            mIn.skipInt();
         }
+    }
 
+    private void putTypeSpecNameStrings(int type, String name) {
+        Set<String> names = mExistTypeNames.get(type);
+        if (names == null) {
+            names = new HashSet<String>();
+            mExistTypeNames.put(type, names);
+        }
+        names.add(name);
     }
 
     /**
@@ -442,66 +481,33 @@ public class ARSCDecoder {
      * @throws IOException
      * @throws AndrolibException
      */
-    private void readEntry() throws IOException, AndrolibException {
-        mIn.skipBytes(2);
-        short flags = mIn.readShort();
-        int specNamesId = mIn.readInt();
+    private void proguardEntry(EntryRecord entry) throws IOException, AndrolibException {
+        int specNamesId = entry.specNamesId;
 
         if (mPkg.isCanProguard()) {
             //混效过，或者已经添加到白名单的都不需要再处理了
             if (!mProguardBuilder.isReplaced(mCurEntryID) && !mProguardBuilder.isInWhiteList(mCurEntryID)) {
-                Configuration config = mApkDecoder.getConfig();
+                //名字只取一次，后面白名单、keep mapping和写mapping都用它
+                String specName = mSpecNames.getString(specNamesId);
                 boolean isWhiteList = false;
-                if (config.mUseWhiteList) {
-                    //判断是否走whitelist
-                    HashMap<String, HashMap<String, HashSet<Pattern>>> whiteList = config.mWhiteList;
-                    String packName = mPkg.getName();
-                    if (whiteList.containsKey(packName)) {
-
-                        HashMap<String, HashSet<Pattern>> typeMaps = whiteList.get(packName);
-                        String typeName = mType.getName();
-
-                        if (typeMaps.containsKey(typeName)) {
-                            String specName = mSpecNames.get(specNamesId).toString();
-                            HashSet<Pattern> patterns = typeMaps.get(typeName);
-                            for (Iterator<Pattern> it = patterns.iterator(); it.hasNext(); ) {
-                                Pattern p = it.next();
-                                if (p.matcher(specName).matches()) {
-                                    mPkg.putSpecNamesReplace(mResId, specName);
-                                    mPkg.putSpecNamesblock(specName);
-                                    mProguardBuilder.setInWhiteList(mCurEntryID, true);
-
-                                    mType.putSpecProguardName(specName);
-                                    isWhiteList = true;
-                                    break;
-                                }
-                            }
-                        }
-
+                if (mWhiteListMatcher != null) {
+                    if (mWhiteListMatcher.matches(specName)) {
+                        mPkg.putSpecNamesReplace(mResId, specName);
+                        mPkg.putSpecNamesblock(specName);
+                        mProguardBuilder.setInWhiteList(mCurEntryID, true);
+
+                        mType.putSpecProguardName(specName);
+                        isWhiteList = true;
                     }
-
-
                 }
 
                 String replaceString = null;
                 if (!isWhiteList) {
                     boolean keepMapping = false;
-                    if (config.mUseKeepMapping) {
-                        HashMap<String, HashMap<String, HashMap<String, String>>> resMapping = config.mOldResMapping;
-                        String packName = mPkg.getName();
-                        if (resMapping.containsKey(packName)) {
-                            HashMap<String, HashMap<String, String>> typeMaps = resMapping.get(packName);
-                            String typeName = mType.getName();
-                            if (typeMaps.containsKey(typeName)) {
-                                //这里面的东东已经提前去掉，请放心使用
-                                HashMap<String, String> proguard = typeMaps.get(typeName);
-                                String specName = mSpecNames.get(specNamesId).toString();
-                                if (proguard.containsKey(specName)) {
-                                    keepMapping = true;
-                                    replaceString = proguard.get(specName);
-                                }
-                            }
-                        }
+                    if (mKeepMapping != null) {
+                        //这里面的东东已经提前去掉，请放心使用
+                        replaceString = mKeepMapping.get(specName);
+                        keepMapping = replaceString != null;
                     }
 
                     if (!keepMapping) {
@@ -513,7 +519,7 @@ public class ARSCDecoder {
                     if (replaceString == null) {
                         throw new AndrolibException("readEntry replaceString == null");
                     }
-                    generalResIDMapping(mPkg.getName(), mType.getName(), mSpecNames.get(specNamesId).toString(), replaceString);
+                    generalResIDMapping(mPkg.getName(), mType.getName(), specName, replaceString);
                     mPkg.putSpecNamesReplace(mResId, replaceString);
                     mPkg.putSpecNamesblock(replaceString);
                     mType.putSpecProguardName(replaceString);
@@ -521,70 +527,16 @@ public class ARSCDecoder {
             }
         }
 
-        boolean readDirect;
-        if ((flags & ENTRY_FLAG_COMPLEX) == 0) {
-            readDirect = true;
-            readValue(readDirect, specNamesId);
-        } else {
-            readDirect = false;
-            readComplexEntry(readDirect, specNamesId);
-        }
-    }
-
-    private void writeEntry() throws IOException, AndrolibException {
-        /* size */
-        mOut.writeBytes(mIn, 2);
-        short flags = mIn.readShort();
-        mOut.writeShort(flags);
-        int specNamesId = mIn.readInt();
-        ResPackage pkg = mPkgs[mCurPackageID];
-        if (pkg.isCanProguard()) {
-            specNamesId = mCurSpecNameToPos.get(pkg.getSpecRepplace(mResId));
-            if (specNamesId < 0) {
-                throw new AndrolibException(String.format(
-                    "writeEntry new specNamesId < 0 %d", specNamesId));
-            }
-        }
-        mOut.writeInt(specNamesId);
-
-        if ((flags & ENTRY_FLAG_COMPLEX) == 0) {
-            writeValue();
-        } else {
-            writeComplexEntry();
+        //只有直接的值才可能是文件路径
+        if (!entry.complex) {
+            proguardValue(entry.valueType, entry.valueData);
         }
     }
 
-    private void readComplexEntry(boolean flags, int specNamesId) throws IOException,
-        AndrolibException {
-        int parent = mIn.readInt();
-        int count = mIn.readInt();
-        for (int i = 0; i < count; i++) {
-            mIn.readInt();
-            readValue(flags, specNamesId);
-        }
-    }
-
-    private void writeComplexEntry() throws IOException,
-        AndrolibException {
-        mOut.writeInt(mIn.readInt());
-        int count = mIn.readInt();
-        mOut.writeInt(count);
-        for (int i = 0; i < count; i++) {
-            mOut.writeInt(mIn.readInt());
-            writeValue();
-        }
-    }
-
-    private void readValue(boolean flags, int specNamesId) throws IOException, AndrolibException {
-        /* size */
-        mIn.skipCheckShort((short) 8);
-        /* zero */
-        mIn.skipCheckByte((byte) 0);
-        byte type = mIn.readByte();
-        int data = mIn.readInt();
+    private void proguardValue(byte type, int data) throws IOException, AndrolibException {
 
         //这里面有几个限制，一对于string ,id, array我们是知道肯定不用改的，第二看要那个type是否对应有文件路径
-        if (mPkg.isCanProguard() && flags && type == TypedValue.TYPE_STRING && mShouldProguardForType && mShouldProguardTypeSet.contains(mType.getName())) {
+        if (mPkg.isCanProguard() && type == TypedValue.TYPE_STRING && mShouldProguardForType && mShouldProguardTypeSet.contains(mType.getName())) {
             if (mTableStringsProguard.get(data) == null) {
                 String raw = mTableStrings.get(data).toString();
                 String proguard = mPkg.getSpecRepplace(mResId);
@@ -603,7 +555,7 @@ public class ARSCDecoder {
                     newFilePath = mOldFileName.get(raw.substring(0, secondSlash));
                 }
                 if (newFilePath == null) {
-                    System.err.printf("can not found new res path, raw=%s\n", raw);
+                    mLog.printf("can not found new res path, raw=%s\n", raw);
                     return;
                 }
                 //同理这里不能用File.separator，因为resources.arsc里面就是用这个
@@ -612,51 +564,53 @@ public class ARSCDecoder {
                 if (firstDot != -1) {
                     result += raw.substring(firstDot);
                 }
-                String compatibaleraw = new String(raw);
-                String compatibaleresult = new String(result);
-
-                //为了适配window要做一次转换
-                if (!File.separator.contains("/")) {
-                    compatibaleresult = compatibaleresult.replace("/", File.separator);
-                    compatibaleraw = compatibaleraw.replace("/", File.separator);
-                }
-
-                File resRawFile = new File(mApkDecoder.getOutTempDir().getAbsolutePath() + File.separator + compatibaleraw);
-                File resDestFile = new File(mApkDecoder.getOutDir().getAbsolutePath() + File.separator + compatibaleresult);
-
                 //这里用的是linux的分隔符
                 HashMap<String, Integer> compressData = mApkDecoder.getCompressData();
                 if (compressData.containsKey(raw)) {
                     compressData.put(result, compressData.get(raw));
                 } else {
-                    System.err.printf("can not find the compress dataresFile=%s\n", raw);
+                    mLog.printf("can not find the compress dataresFile=%s\n", raw);
                 }
 
-                if (!resRawFile.exists()) {
-                    System.err.printf("can not find res file, you delete it? path: resFile=%s\n", resRawFile.getAbsolutePath());
-                    return;
-                } else {
-                    if (resDestFile.exists()) {
-                        throw new AndrolibException(
-                            String.format("res dest file is already  found: destFile=%s", resDestFile.getAbsolutePath())
-                        );
-                    }
-                    FileOperation.copyFileUsingStream(resRawFile, resDestFile);
-                    mTableStringsProguard.put(data, result);
-                }
+                renameResFile(data, raw, result);
             }
         }
     }
 
-    private void writeValue() throws IOException, AndrolibException {
-        /* size */
-        mOut.writeCheckShort(mIn.readShort(), (short) 8);
-        /* zero */
-        mOut.writeCheckByte(mIn.readByte(), (byte) 0);
-        byte type = mIn.readByte();
-        mOut.writeByte(type);
-        int data = mIn.readInt();
-        mOut.writeInt(data);
+    /**
+     * 文件是否存在和是否重名都查内存里的索引，不需要每个文件都去stat一次
+     */
+    private void renameResFile(int data, String raw, String result) throws AndrolibException, IOException {
+        try {
+            if (!mApkDecoder.containsRawResFile(raw)) {
+                mLog.printf("can not find res file, you delete it? path: resFile=%s\n", raw);
+                return;
+            }
+        } catch (DirectoryException ex) {
+            throw new AndrolibException(ex);
+        }
+        if (!mApkDecoder.putRenamedResFile(raw, result)) {
+            throw new AndrolibException(
+                String.format("res dest file is already  found: destFile=%s", result)
+            );
+        }
+        //streaming模式不拷贝文件，只记录下新的文件名，生成apk的时候直接从原apk写过去
+        if (!mApkDecoder.getConfig().mUseStreaming) {
+            String compatibaleraw = raw;
+            String compatibaleresult = result;
+
+            //为了适配window要做一次转换
+            if (!File.separator.contains("/")) {
+                compatibaleresult = compatibaleresult.replace("/", File.separator);
+                compatibaleraw = compatibaleraw.replace("/", File.separator);
+            }
+
+            File resRawFile = new File(mApkDecoder.getOutTempDir(), compatibaleraw);
+            File resDestFile = new File(mApkDecoder.getOutDir(), compatibaleresult);
+            //temp/res下面的原文件之后不会再用到，直接移过去，不需要拷贝
+            FileOperation.moveFile(resRawFile, resDestFile);
+        }
+        mTableStringsProguard.put(data, result);
     }
 
     private void readConfigFlags() throws IOException,
@@ -732,18 +686,6 @@ public class ARSCDecoder {
 
     }
 
-    private void writeConfigFlags() throws IOException, AndrolibException {
-        //总的有多大
-        int size = mIn.readInt();
-        if (size < 28) {
-            throw new AndrolibException("Config size < 28");
-        }
-        mOut.writeInt(size);
-
-        mOut.writeBytes(mIn, size - 4);
-
-    }
-
     private Header nextChunk() throws IOException {
         return mHeader = Header.read(mIn);
     }
@@ -762,21 +704,6 @@ public class ARSCDecoder {
         checkChunkType(expectedType);
     }
 
-    private Header writeNextChunk(int diffSize) throws IOException, AndrolibException {
-        mHeader = Header.readAndWriteHeader(mIn, mOut, diffSize);
-        return mHeader;
-    }
-
-    private Header writeNextChunkCheck(int expectedType, int diffSize) throws IOException, AndrolibException {
-        mHeader = Header.readAndWriteHeader(mIn, mOut, diffSize);
-        if (mHeader.type != expectedType) {
-            throw new AndrolibException(String.format(
-                "Invalid chunk type: expected=%d, got=%d",
-                expectedType, mHeader.type));
-        }
-        return mHeader;
-    }
-
     /**
      * 为了加速，不需要处理string,id,array，这几个是肯定不是的
      *
@@ -787,6 +714,45 @@ public class ARSCDecoder {
         return (!name.equals("string") && !name.equals("id") && !name.equals("array"));
     }
 
+    private static class PackageChunk {
+        private final List<TypeChunk> types = new ArrayList<TypeChunk>();
+        private ResPackage  pkg;
+        private StringBlock specNames;
+        private int         start;
+        private int         specNamesStart;
+        private int         specNamesEnd;
+        private int         end;
+    }
+
+    private static class TypeChunk {
+        private final int               id;
+        private final String            name;
+        private final List<EntryRecord> entries = new ArrayList<EntryRecord>();
+
+        public TypeChunk(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    private static class EntryRecord {
+        private final int resId;
+        private final int entryId;
+        private final int specNamesId;
+        //specNamesId在resources.arsc中的位置，写的时候直接改这里
+        private final int specNamesOffset;
+        private boolean complex;
+        private byte    valueType;
+        private int     valueData;
+
+        public EntryRecord(int resId, int entryId, int specNamesId, int specNamesOffset) {
+            this.resId = resId;
+            this.entryId = entryId;
+            this.specNamesId = specNamesId;
+            this.specNamesOffset = specNamesOffset;
+        }
+    }
+
     public static class Header {
         public final static short TYPE_NONE = -1, TYPE_TABLE = 0x0002,
             TYPE_PACKAGE                    = 0x0200, TYPE_TYPE = 0x0202,
@@ -810,28 +776,6 @@ public class ARSCDecoder {
 
             return new Header(type, in.readInt());
         }
-
-        public static Header readAndWriteHeader(ExtDataInput in, ExtDataOutput out, int diffSize) throws IOException, AndrolibException {
-            short type = -1;
-            int size = -1;
-            try {
-                type = in.readShort();
-                out.writeShort(type);
-                out.writeBytes(in, 2);
-                size = in.readInt();
-                size -= diffSize;
-                if (size <= 0) {
-                    throw new AndrolibException(String.format(
-                        "readAndWriteHeader size < 0: size=%d",
-                        size));
-                }
-                out.writeInt(size);
-
-            } catch (EOFException ex) {
-                return new Header(TYPE_NONE, 0);
-            }
-            return new Header(type, size);
-        }
     }
 
     public static class FlagsOffset {
@@ -844,104 +788,139 @@ public class ARSCDecoder {
         }
     }
 
-    private class ProguardStringBuilder {
-        private int          mReplaceCount        = 0;
-        private List<String> mReplaceStringBuffer = new ArrayList<String>();
-        private boolean[] mIsReplaced;
-        private boolean[] mIsWhiteList;
-        private String[] mAToZ   = {"a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l", "m", "n", "o", "p", "q", "r", "s", "t", "u", "v", "w", "x", "y", "z"};
-        private String[] mAToAll = {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "_", "a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l", "m", "n", "o", "p", "q", "r", "s", "t", "u", "v", "w", "x", "y", "z"};
+    /**
+     * 混淆后的名字按 a..z, aa..z_, aaa..z__ 的顺序分配，第n个名字直接由n算出来，
+     * 所有名字只在第一次用的时候生成一份，之后所有type和所有任务共用。
+     * 每个type只需要一个计数器和几个bitset，不再需要每次重新生成整个列表
+     */
+    private static class ProguardStringBuilder {
+        private static final String A_TO_Z   = "abcdefghijklmnopqrstuvwxyz";
+        private static final String A_TO_ALL = "0123456789_abcdefghijklmnopqrstuvwxyz";
+        private static final int    ONE      = A_TO_Z.length();
+        private static final int    TWO      = ONE * A_TO_ALL.length();
+        private static final int    THREE    = TWO * A_TO_ALL.length();
+        private static final int    SIZE     = ONE + TWO + THREE;
         /**
          * 在window上面有些关键字是不能作为文件名的
          * CON, PRN, AUX, CLOCK$, NUL
          * COM1, COM2, COM3, COM4, COM5, COM6, COM7, COM8, COM9
          * LPT1, LPT2, LPT3, LPT4, LPT5, LPT6, LPT7, LPT8, and LPT9.
          */
-        private HashSet<String> mFileNameBlackList;
+        private static final String[] FILE_NAME_BLACK_LIST = {"con", "prn", "aux", "nul"};
 
-        public ProguardStringBuilder() {
-            // TODO Auto-generated constructor stub
-            mFileNameBlackList = new HashSet<String>();
-            mFileNameBlackList.add("con");
-            mFileNameBlackList.add("prn");
-            mFileNameBlackList.add("aux");
-            mFileNameBlackList.add("nul");
+        private final BitSet mExcluded;
+        private final BitSet mIsReplaced;
+        private final BitSet mIsWhiteList;
+        private       int    mNext;
 
+        public ProguardStringBuilder() {
+            mExcluded = new BitSet(SIZE);
+            mIsReplaced = new BitSet();
+            mIsWhiteList = new BitSet();
         }
 
         public void reset() {
-            mReplaceStringBuffer.clear();
-            for (int i = 0; i < mAToZ.length; i++) {
-                mReplaceStringBuffer.add(mAToZ[i]);
-            }
-
-            for (int i = 0; i < mAToZ.length; i++) {
-                String first = mAToZ[i];
-                for (int j = 0; j < mAToAll.length; j++) {
-                    String second = mAToAll[j];
-                    mReplaceStringBuffer.add(first + second);
-                }
-            }
-
-
-            for (int i = 0; i < mAToZ.length; i++) {
-                String first = mAToZ[i];
-                for (int j = 0; j < mAToAll.length; j++) {
-                    String second = mAToAll[j];
-                    for (int k = 0; k < mAToAll.length; k++) {
-                        String third = mAToAll[k];
-                        String result = first + second + third;
-                        if (!mFileNameBlackList.contains(result))
-                            mReplaceStringBuffer.add(first + second + third);
-                    }
-                }
-            }
-            mReplaceCount = 3;
-
-            final int size = mReplaceStringBuffer.size();
-            mIsReplaced = new boolean[size];
-            mIsWhiteList = new boolean[size];
-            for (int i = 0; i < size; i++) {
-                mIsReplaced[i] = false;
-                mIsWhiteList[i] = false;
+            mNext = 0;
+            mExcluded.clear();
+            mIsReplaced.clear();
+            mIsWhiteList.clear();
+            for (String name : FILE_NAME_BLACK_LIST) {
+                mExcluded.set(indexOf(name));
             }
         }
 
         //对于某种类型用过的mapping，全部不能再用了
         public void removeStrings(Collection<String> collection) {
             if (collection == null) return;
-            mReplaceStringBuffer.removeAll(collection);
+            for (String name : collection) {
+                int index = indexOf(name);
+                if (index >= 0) {
+                    mExcluded.set(index);
+                }
+            }
         }
 
         public boolean isReplaced(int id) {
-            return mIsReplaced[id];
+            return mIsReplaced.get(id);
         }
 
         public boolean isInWhiteList(int id) {
-            return mIsWhiteList[id];
+            return mIsWhiteList.get(id);
         }
 
         public void setInWhiteList(int id, boolean set) {
-            mIsWhiteList[id] = set;
+            mIsWhiteList.set(id, set);
         }
 
         public void setInReplaceList(int id, boolean set) {
-            mIsReplaced[id] = set;
+            mIsReplaced.set(id, set);
         }
 
-
         //开始设计是根据id来get,但是为了实现保持mapping的方式，取消了这个
         public String getReplaceString() throws AndrolibException {
-            if (mReplaceStringBuffer.isEmpty()) {
+            mNext = mExcluded.nextClearBit(mNext);
+            if (mNext >= SIZE) {
                 throw new AndrolibException(String.format(
-                    "now can only proguard less than 35594 in a single type\n"
+                    "now can only proguard less than %d in a single type\n", SIZE - FILE_NAME_BLACK_LIST.length
                 ));
             }
-            return mReplaceStringBuffer.remove(0);
+            return NameTable.NAMES[mNext++];
         }
 
-        public int lenght() {
-            return mReplaceStringBuffer.size();
+        /**
+         * 名字在分配顺序里面的位置，不是我们会生成的名字返回-1
+         */
+        private static int indexOf(String name) {
+            int length = name.length();
+            if (length < 1 || length > 3) {
+                return -1;
+            }
+            int first = A_TO_Z.indexOf(name.charAt(0));
+            if (first < 0) {
+                return -1;
+            }
+            int index = first;
+            for (int i = 1; i < length; i++) {
+                int next = A_TO_ALL.indexOf(name.charAt(i));
+                if (next < 0) {
+                    return -1;
+                }
+                index = index * A_TO_ALL.length() + next;
+            }
+            if (length == 1) {
+                return index;
+            }
+            return length == 2 ? ONE + index : ONE + TWO + index;
+        }
+
+        private static String nameAt(int index) {
+            if (index < ONE) {
+                return String.valueOf(A_TO_Z.charAt(index));
+            }
+            index -= ONE;
+            int base = A_TO_ALL.length();
+            if (index < TWO) {
+                return new String(new char[]{A_TO_Z.charAt(index / base), A_TO_ALL.charAt(index % base)});
+            }
+            index -= TWO;
+            return new String(new char[]{
+                A_TO_Z.charAt(index / (base * base)),
+                A_TO_ALL.charAt(index / base % base),
+                A_TO_ALL.charAt(index % base)
+            });
+        }
+
+        /**
+         * 第一次用到的时候才生成，之后只读
+         */
+        private static class NameTable {
+            private static final String[] NAMES = new String[SIZE];
+
+            static {
+                for (int i = 0; i < SIZE; i++) {
+                    NAMES[i] = nameAt(i);
+                }
+            }
         }
     }
 }
\ No newline at end of file
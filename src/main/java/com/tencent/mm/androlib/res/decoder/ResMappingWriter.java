@@ -0,0 +1,80 @@
+package com.tencent.mm.androlib.res.decoder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import com.tencent.mm.resourceproguard.BinaryResMapping;
+import com.tencent.mm.resourceproguard.TextResMapping;
+
+/**
+ * 写resource mapping文件，每一行先拼到内存里，攒够一批再一次写到文件，
+ * 混淆每个id的时候不会有任何io。行的顺序和调用的顺序完全一样。
+ * 关闭的时候在旁边再写一份二进制的mapping，下次keep mapping的时候直接加载
+ */
+class ResMappingWriter {
+    private static final int BATCH_SIZE = 1024 * 1024;
+
+    private final File           mFile;
+    private final StringBuilder  mBuffer;
+    private final TextResMapping mMapping;
+    private       Writer         mWriter;
+
+    ResMappingWriter(File file) {
+        mFile = file;
+        mBuffer = new StringBuilder(64 * 1024);
+        mMapping = new TextResMapping();
+    }
+
+    void writeFileMappingHeader() {
+        mBuffer.append("res path mapping:\n");
+    }
+
+    void writeFileMapping(String raw, String replace) throws IOException {
+        mBuffer.append("    ").append(raw).append(" -> ").append(replace).append('\n');
+        mMapping.putFileMapping(raw, replace);
+        flushIfNeeded();
+    }
+
+    void writeIdMappingHeader() {
+        mBuffer.append("\n\n");
+        mBuffer.append("res id mapping:\n");
+    }
+
+    void writeIdMapping(String packageName, String typeName, String specName, String replace) throws IOException {
+        mBuffer.append("    ")
+            .append(packageName).append(".R.").append(typeName).append('.').append(specName)
+            .append(" -> ")
+            .append(packageName).append(".R.").append(typeName).append('.').append(replace)
+            .append('\n');
+        mMapping.putResMapping(packageName, typeName, specName, replace);
+        flushIfNeeded();
+    }
+
+    void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            if (mWriter != null) {
+                mWriter.close();
+            }
+        }
+        BinaryResMapping.write(mMapping, BinaryResMapping.getBinaryFile(mFile), mFile);
+    }
+
+    private void flushIfNeeded() throws IOException {
+        if (mBuffer.length() >= BATCH_SIZE) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        //第一次写的时候才打开，没有内容也要生成一个空文件
+        if (mWriter == null) {
+            mWriter = new FileWriter(mFile, false);
+        }
+        mWriter.write(mBuffer.toString());
+        mBuffer.setLength(0);
+    }
+}
@@ -10,8 +10,8 @@ import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -22,8 +22,8 @@ import java.util.logging.Logger;
  */
 public class StringBlock {
 
-    private static final CharsetDecoder UTF16LE_DECODER       = Charset.forName("UTF-16LE").newDecoder();
-    private static final CharsetDecoder UTF8_DECODER          = Charset.forName("UTF-8").newDecoder();
+    private static final Charset        UTF16LE               = Charset.forName("UTF-16LE");
+    private static final Charset        UTF8                  = Charset.forName("UTF-8");
     private static final Logger         LOGGER                = Logger.getLogger(StringBlock.class.getName());
     private static final int            CHUNK_STRINGPOOL_TYPE = 0x001C0001;
     private static final int            UTF8_FLAG             = 0x00000100;
@@ -36,10 +36,22 @@ public class StringBlock {
     private int[]   m_styles;
     private boolean m_isUTF8;
     private int[]   m_stringOwns;
+    private int     m_flags;
+    private int     m_chunkSize;
+    //CharsetDecoder不是线程安全的，每个StringBlock用自己的
+    private CharsetDecoder m_decoder;
+    //解码过的字符串，每个index最多只解码一次
+    private String[]       m_stringCache;
+    //字符串到index的反查表，第一次find的时候才建
+    private HashMap<String, Integer> m_stringIndex;
 
     private StringBlock() {
     }
 
+    public boolean isUTF8() {
+        return m_isUTF8;
+    }
+
     /**
      * Reads whole (including chunk type) string block from stream. Stream must
      * be at the chunk type.
@@ -55,7 +67,11 @@ public class StringBlock {
 
         StringBlock block = new StringBlock();
         block.m_isUTF8 = (flags & UTF8_FLAG) != 0;
+        block.m_decoder = (block.m_isUTF8 ? UTF8 : UTF16LE).newDecoder();
+        block.m_flags = flags;
+        block.m_chunkSize = chunkSize;
         block.m_stringOffsets = reader.readIntArray(stringCount);
+        block.m_stringCache = new String[stringCount];
         block.m_stringOwns = new int[stringCount];
         Arrays.fill(block.m_stringOwns, -1);
 
@@ -84,278 +100,210 @@ public class StringBlock {
         return block;
     }
 
-    public static int writeSpecNameStringBlock(ExtDataInput reader, ExtDataOutput out, HashSet<String> specNames, Map<String, Integer> curSpecNameToPos) throws IOException, AndrolibException {
-        int type = reader.readInt();
-        int chunkSize = reader.readInt();
-        int stringCount = reader.readInt();
-        int styleOffsetCount = reader.readInt();
-
+    /**
+     * 用新的spec名字重新生成这个string block，返回的是与原来相比减少的大小
+     */
+    public int writeSpecNameStringBlock(ExtDataOutput out, HashSet<String> specNames, Map<String, Integer> curSpecNameToPos) throws IOException, AndrolibException {
+        int styleOffsetCount = m_styleOffsets != null ? m_styleOffsets.length : 0;
         if (styleOffsetCount != 0) {
             throw new AndrolibException(String.format(
                 "writeSpecNameStringBlock styleOffsetCount != 0  styleOffsetCount %d", styleOffsetCount));
         }
 
-        int flags = reader.readInt();
-        boolean isUTF8 = (flags & UTF8_FLAG) != 0;
-        int stringsOffset = reader.readInt();
-        int stylesOffset = reader.readInt();
-        reader.readIntArray(stringCount);
-        int size = ((stylesOffset == 0) ? chunkSize : stylesOffset) - stringsOffset;
+        int stringCount = specNames.size();
+        int stringsOffset = 7 * 4 + 4 * stringCount;
 
-        if ((size % 4) != 0) {
-            throw new IOException("String data size is not multiple of 4 ("+ size + ").");
+        //先算出准确的大小，一次分配，直接编码进去
+        int size = 0;
+        for (String name : specNames) {
+            size += encodedSize(name, m_isUTF8);
         }
-        byte[] temp_strings = new byte[size];
-        reader.readFully(temp_strings);
-        int totalSize = 0;
-        out.writeCheckInt(type, CHUNK_STRINGPOOL_TYPE);
-        totalSize += 4;
-        stringCount = specNames.size();
-
-        totalSize += 6 * 4 + 4 * stringCount;
-        stringsOffset = totalSize;
-
+        byte[] strings = new byte[align(size)];
         int[] stringOffsets = new int[stringCount];
-        byte[] strings = new byte[size];
         int offset = 0;
         int i = 0;
         curSpecNameToPos.clear();
-
-        for (Iterator<String> it = specNames.iterator(); it.hasNext(); ) {
+        for (String name : specNames) {
             stringOffsets[i] = offset;
-            String name = it.next();
             curSpecNameToPos.put(name, i);
-            if (isUTF8) {
-                strings[offset++] = (byte) name.length();
-                strings[offset++] = (byte) name.length();
-                totalSize += 2;
-                byte[] tempByte = name.getBytes(Charset.forName("UTF-8"));
-                if (name.length() != tempByte.length) {
-                    throw new AndrolibException(
-                        String.format("writeSpecNameStringBlock lenght is different  name %d, tempByte %d\n", name.length(), tempByte.length)
-                    );
-                }
-                System.arraycopy(tempByte, 0, strings, offset, tempByte.length);
-                offset += name.length();
-                strings[offset++] = NULL;
-                totalSize += name.length() + 1;
-            } else {
-                writeShort(strings, offset, (short) name.length());
-                offset += 2;
-                totalSize += 2;
-                byte[] tempByte = name.getBytes(Charset.forName("UTF-16LE"));
-                if ((name.length() * 2) != tempByte.length) {
-                    throw new AndrolibException(
-                        String.format("writeSpecNameStringBlock lenght is different  name %d, tempByte %d\n", name.length(), tempByte.length)
-                    );
-                }
-                System.arraycopy(tempByte, 0, strings, offset, tempByte.length);
-                offset += tempByte.length;
-                strings[offset++] = NULL;
-                strings[offset++] = NULL;
-                totalSize += tempByte.length + 2;
-            }
+            offset = encodeString(name, m_isUTF8, strings, offset);
             i++;
         }
-        //要保证string size 是4的倍数,要补零
-        size = totalSize - stringsOffset;
-        if ((size % 4) != 0) {
-            int add = 4 - (size % 4);
-            for (i = 0; i < add; i++) {
-                strings[offset++] = NULL;
-                totalSize++;
-            }
-        }
+        //要保证string size 是4的倍数,要补零，new出来的数组本身就是0
+        int totalSize = stringsOffset + strings.length;
 
+        out.writeInt(CHUNK_STRINGPOOL_TYPE);
         out.writeInt(totalSize);
         out.writeInt(stringCount);
         out.writeInt(styleOffsetCount);
-        out.writeInt(flags);
+        out.writeInt(m_flags);
         out.writeInt(stringsOffset);
-        out.writeInt(stylesOffset);
+        out.writeInt(0);
         out.writeIntArray(stringOffsets);
-        out.write(strings, 0, offset);
-        return (chunkSize - totalSize);
+        out.write(strings, 0, strings.length);
+        return (m_chunkSize - totalSize);
     }
 
-    public static int writeTableNameStringBlock(ExtDataInput reader, ExtDataOutput out, Map<Integer, String> tableProguardMap) throws IOException, AndrolibException {
-        int type = reader.readInt();
-        int chunkSize = reader.readInt();
-        int stringCount = reader.readInt();
-        int styleOffsetCount = reader.readInt();
-        int flags = reader.readInt();
-        int stringsOffset = reader.readInt();
-        int stylesOffset = reader.readInt();
-
-        StringBlock block = new StringBlock();
-        block.m_isUTF8 = (flags & UTF8_FLAG) != 0;
-        if (block.m_isUTF8) {
-            System.out.printf("resources.arsc Character Encoding: utf-8\n");
-        } else {
-            System.out.printf("resources.arsc Character Encoding: utf-16\n");
-        }
-
-        block.m_stringOffsets = reader.readIntArray(stringCount);
-        block.m_stringOwns = new int[stringCount];
+    /**
+     * 把混淆过的文件路径替换进这个string block，返回的是与原来相比减少的大小
+     */
+    public int writeTableNameStringBlock(ExtDataOutput out, Map<Integer, String> tableProguardMap) throws IOException, AndrolibException {
+        int stringCount = getCount();
+        int styleOffsetCount = m_styleOffsets != null ? m_styleOffsets.length : 0;
+        int stringsOffset = 7 * 4 + 4 * stringCount + 4 * styleOffsetCount;
+        int stylesOffset = 0;
+
+        //没混淆的项直接拷贝原来的字节(最后一项连同原来的补零)，混淆过的重新编码
+        String[] names = new String[stringCount];
+        int size = 0;
         for (int i = 0; i < stringCount; i++) {
-            block.m_stringOwns[i] = -1;
-        }
-        if (styleOffsetCount != 0) {
-            block.m_styleOffsets = reader.readIntArray(styleOffsetCount);
-        }
-        {
-            int size = ((stylesOffset == 0) ? chunkSize : stylesOffset) - stringsOffset;
-            if ((size % 4) != 0) {
-                throw new IOException("String data size is not multiple of 4 ("
-                    + size + ").");
-            }
-            block.m_strings = new byte[size];
-            reader.readFully(block.m_strings);
-
-        }
-        if (stylesOffset != 0) {
-            int size = (chunkSize - stylesOffset);
-            if ((size % 4) != 0) {
-                throw new IOException("Style data size is not multiple of 4 ("
-                    + size + ").");
-            }
-            block.m_styles = reader.readIntArray(size / 4);
+            names[i] = tableProguardMap.get(i);
+            size += names[i] != null ? encodedSize(names[i], m_isUTF8) : rawSize(i);
         }
-
-
-        int totalSize = 0;
-
-        out.writeCheckInt(type, CHUNK_STRINGPOOL_TYPE);
-
-        totalSize += 4;
-
-
-        totalSize += 6 * 4 + 4 * stringCount + 4 * styleOffsetCount;
-        stringsOffset = totalSize;
-
-
-        byte[] strings = new byte[block.m_strings.length];
+        byte[] strings = new byte[align(size)];
         int[] stringOffsets = new int[stringCount];
-        System.arraycopy(block.m_stringOffsets, 0, stringOffsets, 0, stringOffsets.length);
-
         int offset = 0;
-        int i;
-        for (i = 0; i < stringCount; i++) {
+        for (int i = 0; i < stringCount; i++) {
             stringOffsets[i] = offset;
-            //如果找不到即没混淆这一项,直接拷贝
-            if (tableProguardMap.get(i) == null) {
-                //需要区分是否是最后一项
-                int copyLen = (i == (stringCount - 1)) ? (block.m_strings.length - block.m_stringOffsets[i]) : (block.m_stringOffsets[i + 1] - block.m_stringOffsets[i]);
-                System.arraycopy(block.m_strings, block.m_stringOffsets[i], strings, offset, copyLen);
+            if (names[i] == null) {
+                int copyLen = rawSize(i);
+                System.arraycopy(m_strings, m_stringOffsets[i], strings, offset, copyLen);
                 offset += copyLen;
-                totalSize += copyLen;
             } else {
-                String name = tableProguardMap.get(i);
-                if (block.m_isUTF8) {
-                    strings[offset++] = (byte) name.length();
-                    strings[offset++] = (byte) name.length();
-                    totalSize += 2;
-                    byte[] tempByte = name.getBytes(Charset.forName("UTF-8"));
-                    if (name.length() != tempByte.length) {
-                        throw new AndrolibException(String.format(
-                            "writeTableNameStringBlock lenght is different  name %d, tempByte %d\n", name.length(), tempByte.length));
-                    }
-                    System.arraycopy(tempByte, 0, strings, offset, tempByte.length);
-                    offset += name.length();
-                    strings[offset++] = NULL;
-                    totalSize += name.length() + 1;
-                } else {
-                    writeShort(strings, offset, (short) name.length());
-                    offset += 2;
-                    totalSize += 2;
-                    byte[] tempByte = name.getBytes(Charset.forName("UTF-16LE"));
-                    if ((name.length() * 2) != tempByte.length) {
-                        throw new AndrolibException(String.format(
-                            "writeTableNameStringBlock lenght is different  name %d, tempByte %d\n", name.length(), tempByte.length));
-                    }
-                    System.arraycopy(tempByte, 0, strings, offset, tempByte.length);
-                    offset += tempByte.length;
-                    strings[offset++] = NULL;
-                    strings[offset++] = NULL;
-                    totalSize += tempByte.length + 2;
-                }
-            }
-
-        }
-        //要保证string size 是4的倍数,要补零
-        int size = totalSize - stringsOffset;
-        if ((size % 4) != 0) {
-            int add = 4 - (size % 4);
-            for (i = 0; i < add; i++) {
-                strings[offset++] = NULL;
-                totalSize++;
+                offset = encodeString(names[i], m_isUTF8, strings, offset);
             }
         }
+        int totalSize = stringsOffset + strings.length;
         //因为是int的,如果之前的不为0
-        if (stylesOffset != 0) {
+        if (m_styles != null) {
             stylesOffset = totalSize;
-            totalSize += block.m_styles.length * 4;
+            totalSize += m_styles.length * 4;
         }
 
+        out.writeInt(CHUNK_STRINGPOOL_TYPE);
         out.writeInt(totalSize);
         out.writeInt(stringCount);
         out.writeInt(styleOffsetCount);
-        out.writeInt(flags);
+        out.writeInt(m_flags);
         out.writeInt(stringsOffset);
         out.writeInt(stylesOffset);
         out.writeIntArray(stringOffsets);
         if (stylesOffset != 0) {
-            out.writeIntArray(block.m_styleOffsets);
+            out.writeIntArray(m_styleOffsets);
         }
-        out.write(strings, 0, offset);
+        out.write(strings, 0, strings.length);
         if (stylesOffset != 0) {
-            out.writeIntArray(block.m_styles);
+            out.writeIntArray(m_styles);
         }
-        return (chunkSize - totalSize);
+        return (m_chunkSize - totalSize);
     }
 
     /**
-     * Reads whole (including chunk type) string block from stream. Stream must
-     * be at the chunk type.
+     * 原来pool里第index项占的字节数，需要区分是否是最后一项
      */
-    public static void writeAll(ExtDataInput reader, ExtDataOutput out) throws IOException {
-        out.writeCheckChunkTypeInt(reader, CHUNK_STRINGPOOL_TYPE, CHUNK_NULL_TYPE);
-        int chunkSize = reader.readInt();
-        out.writeInt(chunkSize);
-        out.writeBytes(reader, chunkSize - 8);
+    private int rawSize(int index) {
+        int end = (index == m_stringOffsets.length - 1) ? m_strings.length : m_stringOffsets[index + 1];
+        return end - m_stringOffsets[index];
     }
 
-    private static final int[] getUtf8(byte[] array, int offset) {
-        int val = array[offset];
-        int length;
+    private static int align(int size) {
+        return (size + 3) & ~3;
+    }
 
-        if ((val & 0x80) != 0) {
-            offset += 2;
-        } else {
-            offset += 1;
-        }
-        val = array[offset];
-        if ((val & 0x80) != 0) {
-            offset += 2;
-        } else {
-            offset += 1;
+    /**
+     * 编码之后在pool里占的字节数，包括长度前缀和结尾的0
+     */
+    private static int encodedSize(String name, boolean isUTF8) throws AndrolibException {
+        int length = name.length();
+        if (isUTF8) {
+            int byteLength = utf8Length(name);
+            if (byteLength > 0x7fff) {
+                throw new AndrolibException(String.format("string too long for utf-8 pool %d", byteLength));
+            }
+            return (length > 0x7f ? 2 : 1) + (byteLength > 0x7f ? 2 : 1) + byteLength + 1;
         }
-        length = 0;
-        while (array[offset + length] != 0) {
-            length++;
+        return (length > 0x7fff ? 4 : 2) + length * 2 + 2;
+    }
+
+    private static int utf8Length(String name) {
+        int length = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < name.length()
+                && Character.isLowSurrogate(name.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
         }
-        return new int[]{offset, length};
+        return length;
     }
 
-    private static final int[] getUtf16(byte[] array, int offset) {
-        int val = ((array[offset + 1] & 0xFF) << 8 | array[offset] & 0xFF);
+    /**
+     * 按pool的格式直接写到strings里，返回写完之后的位置。
+     * utf-8的两个长度前缀(字符数和字节数)超过127的时候各占2个字节，utf-16的超过0x7fff占4个字节
+     */
+    private static int encodeString(String name, boolean isUTF8, byte[] strings, int offset) {
+        int length = name.length();
+        if (isUTF8) {
+            offset = writeUtf8Length(strings, offset, length);
+            offset = writeUtf8Length(strings, offset, utf8Length(name));
+            for (int i = 0; i < length; i++) {
+                char c = name.charAt(i);
+                if (c < 0x80) {
+                    strings[offset++] = (byte) c;
+                } else if (c < 0x800) {
+                    strings[offset++] = (byte) (0xc0 | (c >> 6));
+                    strings[offset++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(name.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, name.charAt(++i));
+                    strings[offset++] = (byte) (0xf0 | (codePoint >> 18));
+                    strings[offset++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    strings[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    strings[offset++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else {
+                    strings[offset++] = (byte) (0xe0 | (c >> 12));
+                    strings[offset++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    strings[offset++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+            strings[offset++] = NULL;
+        } else {
+            if (length > 0x7fff) {
+                writeShort(strings, offset, (short) (0x8000 | (length >> 16)));
+                offset += 2;
+            }
+            writeShort(strings, offset, (short) length);
+            offset += 2;
+            for (int i = 0; i < length; i++) {
+                writeShort(strings, offset, (short) name.charAt(i));
+                offset += 2;
+            }
+            strings[offset++] = NULL;
+            strings[offset++] = NULL;
+        }
+        return offset;
+    }
 
-        if (val == 0x8000) {
-            int high = (array[offset + 3] & 0xFF) << 8;
-            int low = (array[offset + 2] & 0xFF);
-            return new int[]{4, (high + low) * 2};
+    private static int writeUtf8Length(byte[] strings, int offset, int length) {
+        if (length > 0x7f) {
+            strings[offset++] = (byte) (0x80 | (length >> 8));
         }
-        return new int[]{2, val * 2};
+        strings[offset++] = (byte) length;
+        return offset;
+    }
+
+    /**
+     * utf-8的长度前缀是字符数和字节数，各占1或2个字节
+     */
+    private static int skipUtf8Length(byte[] array, int offset) {
+        return offset + ((array[offset] & 0x80) != 0 ? 2 : 1);
     }
 
     private static final int getShort(byte[] array, int offset) {
@@ -390,19 +338,12 @@ public class StringBlock {
         if (index < 0 || m_stringOffsets == null || index >= m_stringOffsets.length) {
             return null;
         }
-        int offset = m_stringOffsets[index];
-        int length;
-
-        if (m_isUTF8) {
-            int[] val = getUtf8(m_strings, offset);
-            offset = val[0];
-            length = val[1];
-        } else {
-            int[] val = getUtf16(m_strings, offset);
-            offset += val[0];
-            length = val[1];
+        String string = m_stringCache[index];
+        if (string == null) {
+            string = decodeString(index);
+            m_stringCache[index] = string;
         }
-        return decodeString(offset, length);
+        return string;
     }
 
     /**
@@ -418,32 +359,57 @@ public class StringBlock {
      * Finds index of the string. Returns -1 if the string was not found.
      */
     public int find(String string) {
-        if (string == null) {
+        if (string == null || m_stringOffsets == null) {
             return -1;
         }
-        for (int i = 0; i != m_stringOffsets.length; ++i) {
-            int offset = m_stringOffsets[i];
-            int length = getShort(m_strings, offset);
-            if (length != string.length()) {
-                continue;
-            }
-            int j = 0;
-            for (; j != length; ++j) {
-                offset += 2;
-                if (string.charAt(j) != getShort(m_strings, offset)) {
-                    break;
+        if (m_stringIndex == null) {
+            //用解码之后的字符串做key，utf-8和utf-16的pool都适用
+            HashMap<String, Integer> index = new HashMap<String, Integer>(m_stringOffsets.length * 4 / 3 + 1);
+            for (int i = m_stringOffsets.length - 1; i >= 0; i--) {
+                String name = getString(i);
+                if (name != null) {
+                    //倒着放，重复的字符串保留最前面的index
+                    index.put(name, i);
                 }
             }
-            if (j == length) {
-                return i;
-            }
+            m_stringIndex = index;
         }
-        return -1;
+        Integer i = m_stringIndex.get(string);
+        return i != null ? i : -1;
     }
 
-    private String decodeString(int offset, int length) {
+    private String decodeString(int index) {
+        int offset = m_stringOffsets[index];
+        int length;
+
+        if (m_isUTF8) {
+            offset = skipUtf8Length(m_strings, skipUtf8Length(m_strings, offset));
+            length = 0;
+            boolean ascii = true;
+            //以0结尾，顺便看一下是不是全是ascii
+            for (byte b = m_strings[offset]; b != 0; b = m_strings[offset + (++length)]) {
+                ascii &= b > 0;
+            }
+            //资源名基本都是ascii，不需要走CharsetDecoder
+            if (ascii) {
+                char[] chars = new char[length];
+                for (int i = 0; i < length; i++) {
+                    chars[i] = (char) m_strings[offset + i];
+                }
+                return new String(chars);
+            }
+        } else {
+            int val = getShort(m_strings, offset);
+            if (val == 0x8000) {
+                length = getShort(m_strings, offset + 2) * 2;
+                offset += 4;
+            } else {
+                length = val * 2;
+                offset += 2;
+            }
+        }
         try {
-            return (m_isUTF8 ? UTF8_DECODER : UTF16LE_DECODER).decode(
+            return m_decoder.decode(
                 ByteBuffer.wrap(m_strings, offset, length)).toString();
         } catch (CharacterCodingException ex) {
             LOGGER.log(Level.WARNING, null, ex);
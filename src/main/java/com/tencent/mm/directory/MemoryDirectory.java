@@ -0,0 +1,219 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.mm.directory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * 放在内存里的目录，小的apk整个混淆过程中间文件都不需要落盘。
+ * 同一棵树里所有文件共用一个内存上限，写的时候超过上限的文件会转到spillDir下面对应的路径
+ */
+public class MemoryDirectory extends AbstractDirectory {
+    private final File                mSpillDir;
+    private final Budget              mBudget;
+    private final Map<String, byte[]> mContents;
+    private final Map<String, File>   mSpilled;
+
+    /**
+     * @param spillDir  内存不够的时候文件写到这个目录下面
+     * @param threshold 所有文件加起来最多占用的内存，单位字节
+     */
+    public MemoryDirectory(File spillDir, long threshold) {
+        this(spillDir, new Budget(threshold));
+    }
+
+    private MemoryDirectory(File spillDir, Budget budget) {
+        super();
+        mSpillDir = spillDir;
+        mBudget = budget;
+        mContents = new HashMap<String, byte[]>();
+        mSpilled = new HashMap<String, File>();
+    }
+
+    /**
+     * 现在所有文件一共占用的内存
+     */
+    public long getMemoryUsed() {
+        return mBudget.mUsed;
+    }
+
+    @Override
+    protected AbstractDirectory createDirLocal(String name) throws DirectoryException {
+        return new MemoryDirectory(new File(mSpillDir, name), mBudget);
+    }
+
+    @Override
+    protected InputStream getFileInputLocal(String name) throws DirectoryException {
+        byte[] content = mContents.get(name);
+        if (content != null) {
+            return new ByteArrayInputStream(content);
+        }
+        File file = mSpilled.get(name);
+        if (file == null) {
+            throw new PathNotExist(name);
+        }
+        try {
+            return new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            throw new DirectoryException(e);
+        }
+    }
+
+    @Override
+    protected OutputStream getFileOutputLocal(String name) throws DirectoryException {
+        //覆盖写的时候先把原来的释放掉
+        removeFileLocal(name);
+        return new SpillOutputStream(name);
+    }
+
+    @Override
+    protected void loadDirs() {
+        loadAll();
+    }
+
+    @Override
+    protected void loadFiles() {
+        loadAll();
+    }
+
+    @Override
+    protected void removeFileLocal(String name) {
+        byte[] content = mContents.remove(name);
+        if (content != null) {
+            mBudget.release(content.length);
+        }
+        File file = mSpilled.remove(name);
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    private void loadAll() {
+        //内存里的目录一开始是空的
+        if (mFiles == null) {
+            mFiles = new LinkedHashSet<String>();
+        }
+        if (mDirs == null) {
+            mDirs = new LinkedHashMap<String, AbstractDirectory>();
+        }
+    }
+
+    /**
+     * 整棵树共用的内存计数
+     */
+    private static class Budget {
+        private final long mThreshold;
+        private       long mUsed;
+
+        Budget(long threshold) {
+            mThreshold = threshold;
+        }
+
+        synchronized boolean acquire(long size) {
+            if (mUsed + size > mThreshold) {
+                return false;
+            }
+            mUsed += size;
+            return true;
+        }
+
+        synchronized void release(long size) {
+            mUsed -= size;
+        }
+    }
+
+    /**
+     * 先写到内存里，超过上限之后把已经写的内容转到文件，后面的直接写文件
+     */
+    private class SpillOutputStream extends OutputStream {
+        private final String                mName;
+        private       ByteArrayOutputStream mBuffer;
+        private       OutputStream          mFileOut;
+        private       File                  mFile;
+        private       long                  mAcquired;
+
+        SpillOutputStream(String name) {
+            mName = name;
+            mBuffer = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureCapacity(1);
+            if (mFileOut != null) {
+                mFileOut.write(b);
+            } else {
+                mBuffer.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureCapacity(len);
+            if (mFileOut != null) {
+                mFileOut.write(b, off, len);
+            } else {
+                mBuffer.write(b, off, len);
+            }
+        }
+
+        private void ensureCapacity(int len) throws IOException {
+            if (mFileOut != null || mBudget.acquire(len)) {
+                if (mFileOut == null) {
+                    mAcquired += len;
+                }
+                return;
+            }
+            mFile = new File(mSpillDir, mName);
+            mSpillDir.mkdirs();
+            mFileOut = new FileOutputStream(mFile);
+            mBuffer.writeTo(mFileOut);
+            mBuffer = null;
+            mBudget.release(mAcquired);
+            mAcquired = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (mFileOut != null) {
+                mFileOut.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mFileOut != null) {
+                mFileOut.close();
+                mFileOut = null;
+                mSpilled.put(mName, mFile);
+            } else if (mBuffer != null) {
+                mContents.put(mName, mBuffer.toByteArray());
+                mBuffer = null;
+            }
+        }
+    }
+}
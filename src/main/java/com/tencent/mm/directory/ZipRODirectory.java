@@ -21,12 +21,15 @@ import java.io.OutputStream;
 import java.util.Enumeration;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 public class ZipRODirectory extends AbstractDirectory {
     private ZipFile mZipFile;
     private String  mPath;
+    //整个zip的目录树，根目录第一次用到的时候扫一遍central directory建好，子目录直接指向里面的节点
+    private Node    mNode;
 
     public ZipRODirectory(String zipFileName) throws DirectoryException {
         this(zipFileName, "");
@@ -61,6 +64,11 @@ public class ZipRODirectory extends AbstractDirectory {
         mPath = path;
     }
 
+    private ZipRODirectory(ZipFile zipFile, String path, Node node) {
+        this(zipFile, path);
+        mNode = node;
+    }
+
     @Override
     protected AbstractDirectory createDirLocal(String name)
         throws DirectoryException {
@@ -102,32 +110,52 @@ public class ZipRODirectory extends AbstractDirectory {
         mFiles = new LinkedHashSet<String>();
         mDirs = new LinkedHashMap<String, AbstractDirectory>();
 
-        int prefixLen = getPath().length();
-        Enumeration<? extends ZipEntry> entries = getZipFile().entries();
+        Node node = getNode();
+        mFiles.addAll(node.mFiles);
+        for (Map.Entry<String, Node> entry : node.mDirs.entrySet()) {
+            String subname = entry.getKey();
+            mDirs.put(subname, new ZipRODirectory(getZipFile(), getPath() + subname + separator, entry.getValue()));
+        }
+    }
+
+    private Node getNode() {
+        if (mNode == null) {
+            mNode = buildIndex(getZipFile(), getPath());
+        }
+        return mNode;
+    }
+
+    /**
+     * 只遍历一次所有的entry，建出path下面的整棵目录树
+     */
+    private static Node buildIndex(ZipFile zipFile, String path) {
+        Node root = new Node();
+        int prefixLen = path.length();
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
         while (entries.hasMoreElements()) {
             ZipEntry entry = entries.nextElement();
             String name = entry.getName();
-
-            if (name.equals(getPath()) || !name.startsWith(getPath())) {
+            if (!name.startsWith(path)) {
                 continue;
             }
 
-            String subname = name.substring(prefixLen);
-            int pos = subname.indexOf(separator);
-            if (pos == -1) {
-                if (!entry.isDirectory()) {
-                    mFiles.add(subname);
-                    continue;
+            Node node = root;
+            int start = prefixLen;
+            while (start < name.length()) {
+                int pos = name.indexOf(separator, start);
+                if (pos == -1) {
+                    if (!entry.isDirectory()) {
+                        node.mFiles.add(name.substring(start));
+                    } else {
+                        node.getDir(name.substring(start));
+                    }
+                    break;
                 }
-            } else {
-                subname = subname.substring(0, pos);
-            }
-
-            if (!mDirs.containsKey(subname)) {
-                AbstractDirectory dir = new ZipRODirectory(getZipFile(), getPath() + subname + separator);
-                mDirs.put(subname, dir);
+                node = node.getDir(name.substring(start, pos));
+                start = pos + 1;
             }
         }
+        return root;
     }
 
     private String getPath() {
@@ -138,4 +166,17 @@ public class ZipRODirectory extends AbstractDirectory {
         return mZipFile;
     }
 
+    private static class Node {
+        private final LinkedHashSet<String>       mFiles = new LinkedHashSet<String>();
+        private final LinkedHashMap<String, Node> mDirs  = new LinkedHashMap<String, Node>();
+
+        Node getDir(String name) {
+            Node dir = mDirs.get(name);
+            if (dir == null) {
+                dir = new Node();
+                mDirs.put(name, dir);
+            }
+            return dir;
+        }
+    }
 }
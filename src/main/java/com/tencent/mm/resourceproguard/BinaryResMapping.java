@@ -0,0 +1,452 @@
+package com.tencent.mm.resourceproguard;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import com.tencent.mm.util.ByteBufferDataOutput;
+
+/**
+ * 二进制格式的mapping，和文本的resource_mapping_xxx.txt写在同一个目录下，后缀是.bin。
+ * <p>
+ * 加载的时候整个文件一次读进内存，只解析package和type的名字，每个名字的mapping都是查的时候
+ * 在按字节排好序的数组上二分查找，不会为每一行生成String。格式(little-endian)：
+ * <pre>
+ * magic, version, sourceLength, sourceCrc, stringCount, stringDataSize
+ * int[stringCount + 1] 每个字符串在数据区里的偏移，数据区是utf-8，按4字节补齐
+ * fileCount, (raw, replace) * fileCount                 按raw排序
+ * packageCount
+ *   packageName, typeCount
+ *     typeName, entryCount, (spec, replace) * entryCount 按spec排序
+ * </pre>
+ * 所有名字都是字符串表里的下标。sourceLength和sourceCrc是生成它的文本mapping的长度和crc32，
+ * 文本mapping被改过之后就不会再用旁边的二进制mapping，没有对应文本的时候sourceLength是-1
+ */
+public class BinaryResMapping implements ResMapping {
+    private static final int     MAGIC   = 0x504d4752;
+    private static final int     VERSION = 2;
+    private static final int     HEADER  = 24;
+    private static final Charset UTF8    = Charset.forName("UTF-8");
+    private static final String  SUFFIX  = ".bin";
+
+    private final ByteBuffer mBuffer;
+    private final int        mSourceLength;
+    private final int        mSourceCrc;
+    private final int        mStringOffsetsPos;
+    private final int        mStringDataPos;
+
+    private final SortedPairMap                                               mFileMapping;
+    private final LinkedHashMap<String, LinkedHashMap<String, SortedPairMap>> mResMapping;
+
+    private BinaryResMapping(File file, ByteBuffer buffer) throws IOException {
+        mBuffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int limit = mBuffer.limit();
+        if (limit < HEADER || mBuffer.getInt(0) != MAGIC) {
+            throw new IOException(String.format("invalid binary mapping file %s", file.getAbsolutePath()));
+        }
+        if (mBuffer.getInt(4) != VERSION) {
+            throw new IOException(String.format("unsupported binary mapping version %d, file %s",
+                mBuffer.getInt(4), file.getAbsolutePath()));
+        }
+        mSourceLength = mBuffer.getInt(8);
+        mSourceCrc = mBuffer.getInt(12);
+        int stringCount = mBuffer.getInt(16);
+        int stringDataSize = mBuffer.getInt(20);
+        mStringOffsetsPos = HEADER;
+        //所有的偏移和数量在这里一次检查完，后面查找的时候就不会越界
+        checkRange(file, stringCount >= 0 && stringDataSize >= 0, "string table size");
+        long dataPos = mStringOffsetsPos + (stringCount + 1L) * 4;
+        checkRange(file, dataPos + align(stringDataSize) <= limit, "string table size");
+        mStringDataPos = (int) dataPos;
+        int last = 0;
+        for (int i = 0; i <= stringCount; i++) {
+            int offset = mBuffer.getInt(mStringOffsetsPos + i * 4);
+            checkRange(file, offset >= last && offset <= stringDataSize, "string offset");
+            last = offset;
+        }
+        checkRange(file, last == stringDataSize, "string offset");
+
+        int pos = mStringDataPos + align(stringDataSize);
+        checkRange(file, pos + 4L <= limit, "file mapping count");
+        int fileCount = mBuffer.getInt(pos);
+        checkPairs(file, pos + 4, fileCount, stringCount);
+        mFileMapping = new SortedPairMap(pos + 4, fileCount);
+        pos += 4 + fileCount * 8;
+
+        mResMapping = new LinkedHashMap<String, LinkedHashMap<String, SortedPairMap>>();
+        checkRange(file, pos + 4L <= limit, "package count");
+        int packageCount = mBuffer.getInt(pos);
+        checkRange(file, packageCount >= 0, "package count");
+        pos += 4;
+        for (int i = 0; i < packageCount; i++) {
+            checkRange(file, pos + 8L <= limit, "package header");
+            int packageId = mBuffer.getInt(pos);
+            int typeCount = mBuffer.getInt(pos + 4);
+            checkRange(file, packageId >= 0 && packageId < stringCount && typeCount >= 0, "package header");
+            String packageName = getString(packageId);
+            pos += 8;
+            LinkedHashMap<String, SortedPairMap> typeMap = new LinkedHashMap<String, SortedPairMap>();
+            for (int j = 0; j < typeCount; j++) {
+                checkRange(file, pos + 8L <= limit, "type header");
+                int typeId = mBuffer.getInt(pos);
+                int entryCount = mBuffer.getInt(pos + 4);
+                checkRange(file, typeId >= 0 && typeId < stringCount, "type header");
+                checkPairs(file, pos + 8, entryCount, stringCount);
+                typeMap.put(getString(typeId), new SortedPairMap(pos + 8, entryCount));
+                pos += 8 + entryCount * 8;
+            }
+            mResMapping.put(packageName, typeMap);
+        }
+    }
+
+    private void checkPairs(File file, int pos, int count, int stringCount) throws IOException {
+        checkRange(file, count >= 0 && pos + count * 8L <= mBuffer.limit(), "mapping pair count");
+        for (int i = 0; i < count * 2; i++) {
+            int id = mBuffer.getInt(pos + i * 4);
+            checkRange(file, id >= 0 && id < stringCount, "string index");
+        }
+    }
+
+    private static void checkRange(File file, boolean valid, String what) throws IOException {
+        if (!valid) {
+            throw new IOException(String.format("corrupt binary mapping file %s, bad %s",
+                file.getAbsolutePath(), what));
+        }
+    }
+
+    /**
+     * 文本mapping对应的二进制mapping文件，resource_mapping_xxx.txt -> resource_mapping_xxx.bin
+     */
+    public static File getBinaryFile(File textFile) {
+        String name = textFile.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        return new File(textFile.getParentFile(), name + SUFFIX);
+    }
+
+    public static boolean isBinary(File file) throws IOException {
+        if (file.length() < 4) {
+            return false;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return Integer.reverseBytes(raf.readInt()) == MAGIC;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 不用mmap，windows上被map的文件在整个混淆过程中都删不掉也不能覆盖，
+     * 而keep mapping常常就指向上一次的输出目录，文件不大，直接读到堆里然后关掉
+     */
+    public static BinaryResMapping load(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(String.format("binary mapping file is too large %s", file.getAbsolutePath()));
+            }
+            byte[] data = new byte[(int) length];
+            raf.readFully(data);
+            return new BinaryResMapping(file, ByteBuffer.wrap(data));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 这个二进制mapping是不是由textFile现在的内容生成的
+     */
+    public boolean isGeneratedFrom(File textFile) throws IOException {
+        if (mSourceLength < 0 || textFile.length() != mSourceLength) {
+            return false;
+        }
+        return checksum(textFile) == mSourceCrc;
+    }
+
+    private static int checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, length);
+            }
+        } finally {
+            in.close();
+        }
+        return (int) crc.getValue();
+    }
+
+    public static void write(ResMapping mapping, File file) throws IOException {
+        write(mapping, file, null);
+    }
+
+    /**
+     * @param sourceFile 这个mapping对应的文本mapping，会记下它的长度和crc，可以为null
+     */
+    public static void write(ResMapping mapping, File file, File sourceFile) throws IOException {
+        //字符串表，相同的字符串只存一份
+        final LinkedHashMap<String, Integer> stringIds = new LinkedHashMap<String, Integer>();
+        final List<byte[]> strings = new ArrayList<byte[]>();
+        int stringDataSize = 0;
+        List<String> names = new ArrayList<String>();
+        names.addAll(mapping.getFileMapping().keySet());
+        names.addAll(mapping.getFileMapping().values());
+        for (String packageName : mapping.getPackageNames()) {
+            names.add(packageName);
+            for (String typeName : mapping.getTypeNames(packageName)) {
+                names.add(typeName);
+                Map<String, String> resMapping = mapping.getResMapping(packageName, typeName);
+                names.addAll(resMapping.keySet());
+                names.addAll(resMapping.values());
+            }
+        }
+        for (String name : names) {
+            if (!stringIds.containsKey(name)) {
+                byte[] bytes = name.getBytes(UTF8);
+                stringIds.put(name, strings.size());
+                strings.add(bytes);
+                stringDataSize += bytes.length;
+            }
+        }
+
+        ByteBufferDataOutput out = new ByteBufferDataOutput(HEADER + strings.size() * 12 + stringDataSize);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        if (sourceFile != null && sourceFile.length() <= Integer.MAX_VALUE) {
+            out.writeInt((int) sourceFile.length());
+            out.writeInt(checksum(sourceFile));
+        } else {
+            out.writeInt(-1);
+            out.writeInt(0);
+        }
+        out.writeInt(strings.size());
+        out.writeInt(stringDataSize);
+        int offset = 0;
+        for (byte[] bytes : strings) {
+            out.writeInt(offset);
+            offset += bytes.length;
+        }
+        out.writeInt(offset);
+        for (byte[] bytes : strings) {
+            out.write(bytes);
+        }
+        for (int i = stringDataSize; i < align(stringDataSize); i++) {
+            out.write(0);
+        }
+
+        Comparator<String> byBytes = new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                byte[] l = strings.get(stringIds.get(lhs));
+                byte[] r = strings.get(stringIds.get(rhs));
+                return compareBytes(l, 0, l.length, r, 0, r.length);
+            }
+        };
+        writePairs(out, mapping.getFileMapping(), stringIds, byBytes);
+        out.writeInt(mapping.getPackageNames().size());
+        for (String packageName : mapping.getPackageNames()) {
+            Set<String> typeNames = mapping.getTypeNames(packageName);
+            out.writeInt(stringIds.get(packageName));
+            out.writeInt(typeNames.size());
+            for (String typeName : typeNames) {
+                out.writeInt(stringIds.get(typeName));
+                writePairs(out, mapping.getResMapping(packageName, typeName), stringIds, byBytes);
+            }
+        }
+
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            out.writeTo(fos);
+        } finally {
+            fos.close();
+        }
+    }
+
+    private static void writePairs(ByteBufferDataOutput out, Map<String, String> pairs,
+                                   Map<String, Integer> stringIds, Comparator<String> order) {
+        List<String> keys = new ArrayList<String>(pairs.keySet());
+        Collections.sort(keys, order);
+        out.writeInt(keys.size());
+        for (String key : keys) {
+            out.writeInt(stringIds.get(key));
+            out.writeInt(stringIds.get(pairs.get(key)));
+        }
+    }
+
+    private static int align(int size) {
+        return (size + 3) & ~3;
+    }
+
+    private static int compareBytes(byte[] l, int lOff, int lLen, byte[] r, int rOff, int rLen) {
+        int n = Math.min(lLen, rLen);
+        for (int i = 0; i < n; i++) {
+            int diff = (l[lOff + i] & 0xff) - (r[rOff + i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return lLen - rLen;
+    }
+
+    @Override
+    public Map<String, String> getFileMapping() {
+        return mFileMapping;
+    }
+
+    @Override
+    public Set<String> getPackageNames() {
+        return mResMapping.keySet();
+    }
+
+    @Override
+    public Set<String> getTypeNames(String packageName) {
+        HashMap<String, SortedPairMap> typeMap = mResMapping.get(packageName);
+        return typeMap != null ? typeMap.keySet() : Collections.<String>emptySet();
+    }
+
+    @Override
+    public Map<String, String> getResMapping(String packageName, String typeName) {
+        HashMap<String, SortedPairMap> typeMap = mResMapping.get(packageName);
+        return typeMap != null ? typeMap.get(typeName) : null;
+    }
+
+    private int stringStart(int id) {
+        return mStringDataPos + mBuffer.getInt(mStringOffsetsPos + id * 4);
+    }
+
+    private int stringLength(int id) {
+        return mBuffer.getInt(mStringOffsetsPos + id * 4 + 4) - mBuffer.getInt(mStringOffsetsPos + id * 4);
+    }
+
+    private String getString(int id) {
+        byte[] bytes = new byte[stringLength(id)];
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(stringStart(id));
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private int compareString(byte[] key, int id) {
+        int start = stringStart(id);
+        int length = stringLength(id);
+        int n = Math.min(key.length, length);
+        for (int i = 0; i < n; i++) {
+            int diff = (key[i] & 0xff) - (mBuffer.get(start + i) & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return key.length - length;
+    }
+
+    /**
+     * 排好序的(key, value)数组，直接在读进来的数据上二分查找，只有查到的value才会生成String
+     */
+    private class SortedPairMap extends AbstractMap<String, String> {
+        private final int mPos;
+        private final int mCount;
+
+        SortedPairMap(int pos, int count) {
+            mPos = pos;
+            mCount = count;
+        }
+
+        private int indexOf(Object key) {
+            if (!(key instanceof String)) {
+                return -1;
+            }
+            byte[] bytes = ((String) key).getBytes(UTF8);
+            int low = 0;
+            int high = mCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compareString(bytes, mBuffer.getInt(mPos + mid * 8));
+                if (cmp == 0) {
+                    return mid;
+                } else if (cmp > 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+
+        @Override
+        public String get(Object key) {
+            int index = indexOf(key);
+            return index >= 0 ? getString(mBuffer.getInt(mPos + index * 8 + 4)) : null;
+        }
+
+        @Override
+        public int size() {
+            return mCount;
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public int size() {
+                    return mCount;
+                }
+
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new Iterator<Map.Entry<String, String>>() {
+                        private int mIndex = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return mIndex < mCount;
+                        }
+
+                        @Override
+                        public Map.Entry<String, String> next() {
+                            if (mIndex >= mCount) {
+                                throw new NoSuchElementException();
+                            }
+                            int pos = mPos + (mIndex++) * 8;
+                            return new AbstractMap.SimpleImmutableEntry<String, String>(
+                                getString(mBuffer.getInt(pos)), getString(mBuffer.getInt(pos + 4)));
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
@@ -1,32 +1,43 @@
 package com.tencent.mm.resourceproguard;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.security.KeyStore;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 
 import com.tencent.mm.util.Utils;
+import com.tencent.mm.zip.ApkSigner;
 
 /**
  * @author shwenzhang
  */
 public class Configuration {
 
-    public final HashMap<String, HashMap<String, HashSet<Pattern>>> mWhiteList;
-    public final HashMap<String, HashMap<String, HashMap<String, String>>> mOldResMapping;
-    public final HashMap<String, String> mOldFileMapping;
+    public final HashMap<String, HashMap<String, WhiteListMatcher>> mWhiteList;
     public final HashSet<Pattern> mCompressPatterns;
+    /**
+     * keep mapping的时候上一次混淆的mapping，可以是文本的也可以是二进制的
+     */
+    public ResMapping mOldMapping;
 
-    private final Pattern MAP_PATTERN = Pattern.compile("\\s+(.*)->(.*)");
     public boolean mUse7zip = true;
     public boolean mKeepRoot = false;
+    /**
+     * 不解压apk，直接从原apk读取文件并写入新的apk
+     */
+    public boolean mUseStreaming = false;
+    /**
+     * streaming模式下中间文件(resources.arsc)在内存里最多占用的字节数，超过了写到输出目录
+     */
+    public final long mMemoryDirThreshold;
+    /**
+     * 解压和重新压缩apk的线程数，小于等于0的时候使用cpu的核数
+     */
+    public final int mWorkerThreads;
     public String mMetaName = "META-INF";
     public boolean mUseSignAPk = false;
     public boolean mUseKeepMapping = false;
@@ -37,17 +48,16 @@ public class Configuration {
     public String mKeyPass;
     public String mStorePass;
     public String mStoreAlias;
-    public String m7zipPath;
-    public String mZipalignPath;
+    /**
+     * 签名用的key，只在设置签名信息的时候从keystore读一次
+     */
+    public KeyStore.PrivateKeyEntry mSignKey;
 
     /**
      * use by gradle
      */
-    public Configuration(InputParam param, String sevenzipPath,
-            String zipAlignPath) throws IOException {
-        mWhiteList = new HashMap<String, HashMap<String, HashSet<Pattern>>>();
-        mOldResMapping = new HashMap<String, HashMap<String, HashMap<String, String>>>();
-        mOldFileMapping = new HashMap<String, String>();
+    public Configuration(InputParam param) throws IOException {
+        mWhiteList = new HashMap<String, HashMap<String, WhiteListMatcher>>();
         mCompressPatterns = new HashSet<Pattern>();
         setSignData(param.signFile, param.keypass, param.storealias,
                 param.storepass);
@@ -67,6 +77,9 @@ public class Configuration {
         }
         mUse7zip = param.use7zip;
         mKeepRoot = param.keepRoot;
+        mUseStreaming = param.streaming;
+        mMemoryDirThreshold = param.memoryDirThreshold;
+        mWorkerThreads = param.workerThreads;
         if (!StringUtils.isEmpty(param.metaName)) {
             mMetaName = param.metaName;
         }
@@ -79,8 +92,6 @@ public class Configuration {
                 addToCompressPatterns(item);
             }
         }
-        this.m7zipPath = sevenzipPath;
-        this.mZipalignPath = zipAlignPath;
     }
 
     public void setSignData(File signatureFile, String keypass,
@@ -98,6 +109,7 @@ public class Configuration {
         mKeyPass = keypass;
         mStoreAlias = storealias;
         mStorePass = storepass;
+        mSignKey = ApkSigner.loadKey(mSignatureFile, mStorePass, mKeyPass, mStoreAlias);
     }
 
     public void setKeepMappingData(File mappingFile) throws IOException {
@@ -133,25 +145,23 @@ public class Configuration {
         int nextDot = item.indexOf(".", packagePos + 3);
         String typeName = item.substring(packagePos + 3, nextDot);
         String name = item.substring(nextDot + 1);
-        HashMap<String, HashSet<Pattern>> typeMap;
+        HashMap<String, WhiteListMatcher> typeMap;
 
         if (mWhiteList.containsKey(packageName)) {
             typeMap = mWhiteList.get(packageName);
         } else {
-            typeMap = new HashMap<String, HashSet<Pattern>>();
+            typeMap = new HashMap<String, WhiteListMatcher>();
         }
 
-        HashSet<Pattern> patterns;
+        WhiteListMatcher matcher;
         if (typeMap.containsKey(typeName)) {
-            patterns = typeMap.get(typeName);
+            matcher = typeMap.get(typeName);
         } else {
-            patterns = new HashSet<Pattern>();
+            matcher = new WhiteListMatcher();
         }
 
-        name = Utils.convetToPatternString(name);
-        Pattern pattern = Pattern.compile(name);
-        patterns.add(pattern);
-        typeMap.put(typeName, patterns);
+        matcher.add(name);
+        typeMap.put(typeName, matcher);
         mWhiteList.put(packageName, typeMap);
     }
 
@@ -165,90 +175,6 @@ public class Configuration {
     }
 
     private void processOldMappingFile() throws IOException {
-        mOldResMapping.clear();
-        mOldFileMapping.clear();
-
-        FileReader fr;
-        try {
-            fr = new FileReader(mOldMappingFile);
-        } catch (FileNotFoundException ex) {
-            throw new IOException(String.format(
-                    "Could not find old mapping file %s",
-                    mOldMappingFile.getAbsolutePath()));
-        }
-        BufferedReader br = new BufferedReader(fr);
-        try {
-            String line = br.readLine();
-
-            while (line != null) {
-                if (line.length() > 0) {
-                    Matcher mat = MAP_PATTERN.matcher(line);
-
-                    if (mat.find()) {
-                        String nameAfter = mat.group(2);
-                        String nameBefore = mat.group(1);
-                        nameAfter = nameAfter.trim();
-                        nameBefore = nameBefore.trim();
-
-                        // 如果有这个的话，那就是mOldFileMapping
-                        if (line.contains("/")) {
-                            mOldFileMapping.put(nameBefore, nameAfter);
-                        } else {
-                            // 这里是resid的mapping
-                            int packagePos = nameBefore.indexOf(".R.");
-                            if (packagePos == -1) {
-                                throw new IOException(
-                                        String.format(
-                                                "the old mapping file packagename is malformed, "
-                                                        + "it should be like com.tencent.mm.R.attr.test, yours %s\n",
-                                                nameBefore));
-
-                            }
-                            String packageName = nameBefore.substring(0,
-                                    packagePos);
-                            int nextDot = nameBefore.indexOf(".",
-                                    packagePos + 3);
-                            String typeName = nameBefore.substring(
-                                    packagePos + 3, nextDot);
-
-                            String beforename = nameBefore
-                                    .substring(nextDot + 1);
-                            String aftername = nameAfter.substring(nameAfter
-                                    .indexOf(".", packagePos + 3) + 1);
-
-                            HashMap<String, HashMap<String, String>> typeMap;
-
-                            if (mOldResMapping.containsKey(packageName)) {
-                                typeMap = mOldResMapping.get(packageName);
-                            } else {
-                                typeMap = new HashMap<String, HashMap<String, String>>();
-                            }
-
-                            HashMap<String, String> namesMap;
-                            if (typeMap.containsKey(typeName)) {
-                                namesMap = typeMap.get(typeName);
-                            } else {
-                                namesMap = new HashMap<String, String>();
-                            }
-                            namesMap.put(beforename, aftername);
-
-                            typeMap.put(typeName, namesMap);
-                            mOldResMapping.put(packageName, typeMap);
-                        }
-                    }
-
-                }
-                line = br.readLine();
-            }
-        } catch (IOException ex) {
-            throw new RuntimeException("Error while mapping file");
-        } finally {
-            try {
-                br.close();
-                fr.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+        mOldMapping = ResMappingConverter.read(mOldMappingFile);
     }
 }
@@ -1,5 +1,7 @@
 package com.tencent.mm.resourceproguard;
 
+import com.tencent.mm.util.TypedValue;
+
 import java.io.File;
 import java.util.List;
 
@@ -19,6 +21,9 @@ public class InputParam {
     public final String            keypass;
     public final String            storealias;
     public final String            storepass;
+    public final boolean           streaming;
+    public final long              memoryDirThreshold;
+    public final int               workerThreads;
 
 
     private InputParam(
@@ -33,7 +38,10 @@ public class InputParam {
         String keypass,
         String storealias,
         String storepass,
-        String metaName
+        String metaName,
+        boolean streaming,
+        long memoryDirThreshold,
+        int workerThreads
     ) {
         this.mappingFile = mappingFile;
         this.use7zip = use7zip;
@@ -47,6 +55,9 @@ public class InputParam {
         this.storealias = storealias;
         this.storepass = storepass;
         this.metaName = metaName;
+        this.streaming = streaming;
+        this.memoryDirThreshold = memoryDirThreshold;
+        this.workerThreads = workerThreads;
     }
 
     public static class Builder {
@@ -62,10 +73,16 @@ public class InputParam {
         private String            storealias;
         private String            storepass;
         private String            metaName;
+        private boolean           streaming;
+        private long              memoryDirThreshold;
+        private int               workerThreads;
 
         public Builder() {
             use7zip = false;
             keepRoot = false;
+            streaming = false;
+            memoryDirThreshold = TypedValue.MEMORY_DIR_THRESHOLD;
+            workerThreads = 0;
         }
 
         public Builder setMappingFile(File mappingFile) {
@@ -128,6 +145,28 @@ public class InputParam {
             return this;
         }
 
+        public Builder setStreaming(boolean streaming) {
+            this.streaming = streaming;
+            return this;
+        }
+
+        /**
+         * streaming模式下中间文件在内存里最多占用的字节数，小于等于0的时候使用默认值
+         */
+        public Builder setMemoryDirThreshold(long memoryDirThreshold) {
+            this.memoryDirThreshold = memoryDirThreshold > 0 ? memoryDirThreshold : TypedValue.MEMORY_DIR_THRESHOLD;
+            return this;
+        }
+
+        /**
+         * 一个apk解压和重新压缩的时候最多用多少个线程，小于等于0的时候使用cpu的核数。
+         * 同时混淆多个apk的时候应该把核数分给每个apk
+         */
+        public Builder setWorkerThreads(int workerThreads) {
+            this.workerThreads = workerThreads;
+            return this;
+        }
+
         public InputParam create() {
             return new InputParam(
                 mappingFile,
@@ -141,7 +180,10 @@ public class InputParam {
                 keypass,
                 storealias,
                 storepass,
-                metaName
+                metaName,
+                streaming,
+                memoryDirThreshold,
+                workerThreads
             );
         }
     }
@@ -3,7 +3,6 @@ package com.tencent.mm.resourceproguard;
 import com.tencent.mm.androlib.AndrolibException;
 import com.tencent.mm.androlib.ApkDecoder;
 import com.tencent.mm.androlib.ResourceApkBuilder;
-import com.tencent.mm.androlib.res.decoder.ARSCDecoder;
 import com.tencent.mm.directory.DirectoryException;
 import com.tencent.mm.util.FileOperation;
 
@@ -19,16 +18,14 @@ import java.io.PrintStream;
 public class ResGuardMain {
     public static final int ERRNO_ERRORS = 1;
     public static final int ERRNO_USAGE  = 2;
-    protected static long          mRawApkSize;
-    protected static String        mRunningLocation;
-    protected static long          mBeginTime;
+    protected        long          mRawApkSize;
+    protected        String        mRunningLocation;
+    protected        long          mBeginTime;
     /**
      * 是否通过命令行方式设置
      */
     public boolean mSetSignThroughCmd    = false;
     public boolean mSetMappingThroughCmd = false;
-    public String  m7zipPath             = null;
-    public String  mZipalignPath         = null;
     protected        Configuration config;
     protected        File          mOutDir;
     private PrintStream log;
@@ -55,11 +52,10 @@ public class ResGuardMain {
 
     protected void clean() {
         config = null;
-        ARSCDecoder.mTableStringsProguard.clear();
     }
 
     private void loadConfigFromGradle(InputParam inputParam) throws IOException {
-        config = new Configuration(inputParam, m7zipPath, mZipalignPath);
+        config = new Configuration(inputParam);
     }
 
     protected void resourceProguard(File outputFile, String apkFilePath) throws IOException {
@@ -76,6 +72,8 @@ public class ResGuardMain {
             buildApk(decoder, apkFile);
         } catch (Exception e) {
             throw new IOException(e);
+        } finally {
+            decoder.close();
         }
     }
 
@@ -95,7 +93,7 @@ public class ResGuardMain {
         String apkBasename = apkFile.getName();
         apkBasename = apkBasename.substring(0, apkBasename.indexOf(".apk"));
         builder.setOutDir(mOutDir, apkBasename);
-        builder.buildApk(decoder.getCompressData());
+        builder.buildApk(decoder);
     }
 
     public double diffApkSizeFromRaw(long size) {
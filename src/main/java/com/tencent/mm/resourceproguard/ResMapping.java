@@ -0,0 +1,25 @@
+package com.tencent.mm.resourceproguard;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 之前混淆生成的mapping，keep mapping的时候用来保持和上一次一样的命名，
+ * 可以从文本的mapping里读，也可以从二进制的mapping里读
+ */
+public interface ResMapping {
+
+    /**
+     * res文件路径的mapping，比如res/drawable -> r/a
+     */
+    Map<String, String> getFileMapping();
+
+    Set<String> getPackageNames();
+
+    Set<String> getTypeNames(String packageName);
+
+    /**
+     * 某个package下某种type的名字mapping，比如icon -> a，没有的话返回null
+     */
+    Map<String, String> getResMapping(String packageName, String typeName);
+}
@@ -0,0 +1,41 @@
+package com.tencent.mm.resourceproguard;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 文本mapping和二进制mapping互相转换，以及按文件内容自动选择格式读取
+ */
+public class ResMappingConverter {
+
+    /**
+     * 读取mapping文件。如果给的是文本mapping，只有旁边的二进制mapping记录的长度和crc
+     * 跟这个文本mapping完全一样的时候才用二进制的，文本被改过就还是读文本。
+     * 不能用修改时间判断，git checkout出来的文件时间都是一样的
+     */
+    public static ResMapping read(File mappingFile) throws IOException {
+        if (BinaryResMapping.isBinary(mappingFile)) {
+            return BinaryResMapping.load(mappingFile);
+        }
+        File binaryFile = BinaryResMapping.getBinaryFile(mappingFile);
+        if (binaryFile.exists() && BinaryResMapping.isBinary(binaryFile)) {
+            try {
+                BinaryResMapping mapping = BinaryResMapping.load(binaryFile);
+                if (mapping.isGeneratedFrom(mappingFile)) {
+                    return mapping;
+                }
+            } catch (IOException e) {
+                //旁边的二进制mapping坏了就当它不存在，用户给的是文本mapping
+            }
+        }
+        return TextResMapping.read(mappingFile);
+    }
+
+    public static void toBinary(File textFile, File binaryFile) throws IOException {
+        BinaryResMapping.write(TextResMapping.read(textFile), binaryFile, textFile);
+    }
+
+    public static void toText(File binaryFile, File textFile) throws IOException {
+        TextResMapping.write(BinaryResMapping.load(binaryFile), textFile);
+    }
+}
@@ -0,0 +1,167 @@
+package com.tencent.mm.resourceproguard;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 文本格式的mapping，也就是每次混淆输出的resource_mapping_xxx.txt
+ */
+public class TextResMapping implements ResMapping {
+    private static final Pattern MAP_PATTERN = Pattern.compile("\\s+(.*)->(.*)");
+
+    private final HashMap<String, String>                                   mFileMapping;
+    private final HashMap<String, HashMap<String, HashMap<String, String>>> mResMapping;
+
+    public TextResMapping() {
+        mFileMapping = new LinkedHashMap<String, String>();
+        mResMapping = new LinkedHashMap<String, HashMap<String, HashMap<String, String>>>();
+    }
+
+    public void putFileMapping(String raw, String replace) {
+        mFileMapping.put(raw, replace);
+    }
+
+    public void putResMapping(String packageName, String typeName, String specName, String replace) {
+        HashMap<String, HashMap<String, String>> typeMap = mResMapping.get(packageName);
+        if (typeMap == null) {
+            typeMap = new LinkedHashMap<String, HashMap<String, String>>();
+            mResMapping.put(packageName, typeMap);
+        }
+        HashMap<String, String> namesMap = typeMap.get(typeName);
+        if (namesMap == null) {
+            namesMap = new LinkedHashMap<String, String>();
+            typeMap.put(typeName, namesMap);
+        }
+        namesMap.put(specName, replace);
+    }
+
+    @Override
+    public Map<String, String> getFileMapping() {
+        return mFileMapping;
+    }
+
+    @Override
+    public Set<String> getPackageNames() {
+        return mResMapping.keySet();
+    }
+
+    @Override
+    public Set<String> getTypeNames(String packageName) {
+        HashMap<String, HashMap<String, String>> typeMap = mResMapping.get(packageName);
+        return typeMap != null ? typeMap.keySet() : Collections.<String>emptySet();
+    }
+
+    @Override
+    public Map<String, String> getResMapping(String packageName, String typeName) {
+        HashMap<String, HashMap<String, String>> typeMap = mResMapping.get(packageName);
+        return typeMap != null ? typeMap.get(typeName) : null;
+    }
+
+    public static TextResMapping read(File mappingFile) throws IOException {
+        TextResMapping mapping = new TextResMapping();
+        FileReader fr;
+        try {
+            fr = new FileReader(mappingFile);
+        } catch (FileNotFoundException ex) {
+            throw new IOException(String.format(
+                    "Could not find old mapping file %s",
+                    mappingFile.getAbsolutePath()));
+        }
+        BufferedReader br = new BufferedReader(fr);
+        try {
+            String line = br.readLine();
+
+            while (line != null) {
+                if (line.length() > 0) {
+                    Matcher mat = MAP_PATTERN.matcher(line);
+
+                    if (mat.find()) {
+                        String nameAfter = mat.group(2);
+                        String nameBefore = mat.group(1);
+                        nameAfter = nameAfter.trim();
+                        nameBefore = nameBefore.trim();
+
+                        // 如果有这个的话，那就是mOldFileMapping
+                        if (line.contains("/")) {
+                            mapping.putFileMapping(nameBefore, nameAfter);
+                        } else {
+                            // 这里是resid的mapping
+                            int packagePos = nameBefore.indexOf(".R.");
+                            if (packagePos == -1) {
+                                throw new IOException(
+                                        String.format(
+                                                "the old mapping file packagename is malformed, "
+                                                        + "it should be like com.tencent.mm.R.attr.test, yours %s\n",
+                                                nameBefore));
+
+                            }
+                            String packageName = nameBefore.substring(0,
+                                    packagePos);
+                            int nextDot = nameBefore.indexOf(".",
+                                    packagePos + 3);
+                            String typeName = nameBefore.substring(
+                                    packagePos + 3, nextDot);
+
+                            String beforename = nameBefore
+                                    .substring(nextDot + 1);
+                            String aftername = nameAfter.substring(nameAfter
+                                    .indexOf(".", packagePos + 3) + 1);
+
+                            mapping.putResMapping(packageName, typeName, beforename, aftername);
+                        }
+                    }
+
+                }
+                line = br.readLine();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Error while mapping file");
+        } finally {
+            try {
+                br.close();
+                fr.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return mapping;
+    }
+
+    /**
+     * 按混淆时输出的格式写出来，二进制的mapping也可以转回文本
+     */
+    public static void write(ResMapping mapping, File mappingFile) throws IOException {
+        Writer writer = new BufferedWriter(new FileWriter(mappingFile, false));
+        try {
+            writer.write("res path mapping:\n");
+            for (Map.Entry<String, String> entry : mapping.getFileMapping().entrySet()) {
+                writer.write("    " + entry.getKey() + " -> " + entry.getValue() + "\n");
+            }
+            writer.write("\n\n");
+            writer.write("res id mapping:\n");
+            for (String packageName : mapping.getPackageNames()) {
+                for (String typeName : mapping.getTypeNames(packageName)) {
+                    String prefix = packageName + ".R." + typeName + ".";
+                    for (Map.Entry<String, String> entry : mapping.getResMapping(packageName, typeName).entrySet()) {
+                        writer.write("    " + prefix + entry.getKey() + " -> " + prefix + entry.getValue() + "\n");
+                    }
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.tencent.mm.resourceproguard;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.regex.Pattern;
+
+import com.tencent.mm.util.Utils;
+
+/**
+ * 某个package下某种type的所有白名单，一个名字只需要匹配一次，而不是对每条规则都跑一遍正则。
+ * <ul>
+ * <li>没有通配符的规则放到HashSet里面直接查</li>
+ * <li>只有结尾一个*的规则放到前缀树里面，*至少要匹配一个字符</li>
+ * <li>其他的规则合并成一个正则，只跑一次</li>
+ * </ul>
+ */
+public class WhiteListMatcher {
+    private static final Pattern LITERAL = Pattern.compile("[A-Za-z0-9_.]+");
+
+    private final HashSet<String> mExactNames;
+    private final PrefixNode      mPrefixRoot;
+    private final StringBuilder   mOtherRegex;
+    private       Pattern         mOtherPattern;
+
+    public WhiteListMatcher() {
+        mExactNames = new HashSet<String>();
+        mPrefixRoot = new PrefixNode();
+        mOtherRegex = new StringBuilder();
+    }
+
+    /**
+     * @param glob 配置里面写的名字，支持*和?
+     */
+    public void add(String glob) {
+        if (LITERAL.matcher(glob).matches()) {
+            mExactNames.add(glob);
+            return;
+        }
+        int last = glob.length() - 1;
+        if (last > 0 && glob.indexOf('*') == last && LITERAL.matcher(glob.substring(0, last)).matches()) {
+            mPrefixRoot.add(glob.substring(0, last));
+            return;
+        }
+        if (mOtherRegex.length() > 0) {
+            mOtherRegex.append('|');
+        }
+        mOtherRegex.append("(?:").append(Utils.convetToPatternString(glob)).append(')');
+        mOtherPattern = null;
+    }
+
+    public boolean matches(String name) {
+        if (mExactNames.contains(name) || mPrefixRoot.matchesPrefixOf(name)) {
+            return true;
+        }
+        if (mOtherRegex.length() == 0) {
+            return false;
+        }
+        if (mOtherPattern == null) {
+            mOtherPattern = Pattern.compile(mOtherRegex.toString());
+        }
+        return mOtherPattern.matcher(name).matches();
+    }
+
+    private static class PrefixNode {
+        private HashMap<Character, PrefixNode> mChildren;
+        private boolean                        mIsPrefix;
+
+        void add(String prefix) {
+            PrefixNode node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                if (node.mChildren == null) {
+                    node.mChildren = new HashMap<Character, PrefixNode>();
+                }
+                Character c = prefix.charAt(i);
+                PrefixNode child = node.mChildren.get(c);
+                if (child == null) {
+                    child = new PrefixNode();
+                    node.mChildren.put(c, child);
+                }
+                node = child;
+            }
+            node.mIsPrefix = true;
+        }
+
+        /**
+         * name是不是以某个前缀开头，并且后面至少还有一个字符
+         */
+        boolean matchesPrefixOf(String name) {
+            PrefixNode node = this;
+            for (int i = 0; i < name.length(); i++) {
+                if (node.mIsPrefix) {
+                    return true;
+                }
+                if (node.mChildren == null) {
+                    return false;
+                }
+                node = node.mChildren.get(name.charAt(i));
+                if (node == null) {
+                    return false;
+                }
+            }
+            return false;
+        }
+    }
+}
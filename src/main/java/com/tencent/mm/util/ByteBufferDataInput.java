@@ -0,0 +1,144 @@
+package com.tencent.mm.util;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/**
+ * 基于little-endian ByteBuffer的DataInput，可以是堆上的也可以是mmap出来的，
+ * 读的时候没有额外的拷贝和分配，并且可以随意定位
+ */
+public class ByteBufferDataInput implements DataInput {
+    private final ByteBuffer mBuffer;
+
+    public ByteBufferDataInput(byte[] data) {
+        this(ByteBuffer.wrap(data));
+    }
+
+    public ByteBufferDataInput(ByteBuffer buffer) {
+        mBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int position() {
+        return mBuffer.position();
+    }
+
+    public void position(int position) {
+        mBuffer.position(position);
+    }
+
+    public int remaining() {
+        return mBuffer.remaining();
+    }
+
+    /**
+     * 直接整块读出来，不用一个一个int去读
+     */
+    public int[] readIntArray(int length) throws IOException {
+        require(length * 4);
+        int[] array = new int[length];
+        mBuffer.asIntBuffer().get(array);
+        mBuffer.position(mBuffer.position() + length * 4);
+        return array;
+    }
+
+    private void require(int length) throws EOFException {
+        if (length < 0 || mBuffer.remaining() < length) {
+            throw new EOFException();
+        }
+    }
+
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        require(len);
+        mBuffer.get(b, off, len);
+    }
+
+    public int skipBytes(int n) {
+        int skip = Math.max(0, Math.min(n, mBuffer.remaining()));
+        mBuffer.position(mBuffer.position() + skip);
+        return skip;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public byte readByte() throws IOException {
+        require(1);
+        return mBuffer.get();
+    }
+
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xff;
+    }
+
+    public short readShort() throws IOException {
+        require(2);
+        return mBuffer.getShort();
+    }
+
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xffff;
+    }
+
+    public char readChar() throws IOException {
+        return (char) readShort();
+    }
+
+    public int readInt() throws IOException {
+        require(4);
+        return mBuffer.getInt();
+    }
+
+    public long readLong() throws IOException {
+        require(8);
+        return mBuffer.getLong();
+    }
+
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /**
+     * 和DataInputStream.readLine一样，每个字节当作一个字符，遇到\n、\r或者\r\n结束
+     */
+    public String readLine() {
+        if (!mBuffer.hasRemaining()) {
+            return null;
+        }
+        StringBuilder line = new StringBuilder();
+        while (mBuffer.hasRemaining()) {
+            int c = mBuffer.get() & 0xff;
+            if (c == '\n') {
+                break;
+            }
+            if (c == '\r') {
+                if (mBuffer.hasRemaining() && mBuffer.get(mBuffer.position()) == '\n') {
+                    mBuffer.get();
+                }
+                break;
+            }
+            line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    /**
+     * modified utf-8，前面两个字节的长度和其他值一样是little-endian的，和ByteBufferDataOutput.writeUTF对应
+     */
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+}
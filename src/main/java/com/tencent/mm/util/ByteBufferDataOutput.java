@@ -0,0 +1,157 @@
+package com.tencent.mm.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/**
+ * 写到内存里的little-endian DataOutput，空间不够会自动扩容，
+ * 写完之后还可以回头改前面已经写过的值，比如chunk的size
+ */
+public class ByteBufferDataOutput implements DataOutput {
+    private ByteBuffer mBuffer;
+
+    public ByteBufferDataOutput(int initialCapacity) {
+        mBuffer = ByteBuffer.allocate(Math.max(initialCapacity, 64)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int position() {
+        return mBuffer.position();
+    }
+
+    /**
+     * 改写之前某个位置上的int
+     */
+    public void putInt(int position, int value) {
+        mBuffer.putInt(position, value);
+    }
+
+    public int getInt(int position) {
+        return mBuffer.getInt(position);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(mBuffer.array(), 0, mBuffer.position());
+    }
+
+    private void ensureCapacity(int length) {
+        if (mBuffer.remaining() >= length) {
+            return;
+        }
+        int capacity = Math.max(mBuffer.capacity() * 2, mBuffer.position() + length);
+        ByteBuffer buffer = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        mBuffer.flip();
+        buffer.put(mBuffer);
+        mBuffer = buffer;
+    }
+
+    public void writeIntArray(int[] array) {
+        ensureCapacity(array.length * 4);
+        mBuffer.asIntBuffer().put(array);
+        mBuffer.position(mBuffer.position() + array.length * 4);
+    }
+
+    public void write(int b) {
+        ensureCapacity(1);
+        mBuffer.put((byte) b);
+    }
+
+    public void write(byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        mBuffer.put(b, off, len);
+    }
+
+    public void writeBoolean(boolean v) {
+        write(v ? 1 : 0);
+    }
+
+    public void writeByte(int v) {
+        write(v);
+    }
+
+    public void writeShort(int v) {
+        ensureCapacity(2);
+        mBuffer.putShort((short) v);
+    }
+
+    public void writeChar(int v) {
+        writeShort(v);
+    }
+
+    public void writeInt(int v) {
+        ensureCapacity(4);
+        mBuffer.putInt(v);
+    }
+
+    public void writeLong(long v) {
+        ensureCapacity(8);
+        mBuffer.putLong(v);
+    }
+
+    public void writeFloat(float v) {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    public void writeDouble(double v) {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    public void writeBytes(String s) {
+        int len = s.length();
+        ensureCapacity(len);
+        for (int i = 0; i < len; i++) {
+            mBuffer.put((byte) s.charAt(i));
+        }
+    }
+
+    public void writeChars(String s) {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            writeChar(s.charAt(i));
+        }
+    }
+
+    /**
+     * modified utf-8，和DataOutputStream.writeUTF一样，只是前面两个字节的长度和其他值一样是little-endian的
+     */
+    public void writeUTF(String s) throws IOException {
+        int len = s.length();
+        int utfLength = 0;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007f) {
+                utfLength++;
+            } else if (c > 0x07ff) {
+                utfLength += 3;
+            } else {
+                utfLength += 2;
+            }
+        }
+        if (utfLength > 0xffff) {
+            throw new UTFDataFormatException("encoded string too long: " + utfLength + " bytes");
+        }
+        writeShort(utfLength);
+        ensureCapacity(utfLength);
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007f) {
+                mBuffer.put((byte) c);
+            } else if (c > 0x07ff) {
+                mBuffer.put((byte) (0xe0 | ((c >> 12) & 0x0f)));
+                mBuffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                mBuffer.put((byte) (0x80 | (c & 0x3f)));
+            } else {
+                mBuffer.put((byte) (0xc0 | ((c >> 6) & 0x1f)));
+                mBuffer.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+}
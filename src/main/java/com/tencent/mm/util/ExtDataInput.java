@@ -33,6 +33,9 @@ public class ExtDataInput extends DataInputDelegate {
     }
 
     public int[] readIntArray(int length) throws IOException {
+        if (mDelegate instanceof ByteBufferDataInput) {
+            return ((ByteBufferDataInput) mDelegate).readIntArray(length);
+        }
         int[] array = new int[length];
         for (int i = 0; i < length; i++) {
             array[i] = readInt();
@@ -12,6 +12,10 @@ public class ExtDataOutput extends DataOutputDelegate {
     }
 
     public void writeIntArray(int[] array) throws IOException {
+        if (mDelegate instanceof ByteBufferDataOutput) {
+            ((ByteBufferDataOutput) mDelegate).writeIntArray(array);
+            return;
+        }
         int length = array.length;
         for (int i = 0; i < length; i++) {
             writeInt(array[i]);
@@ -1,23 +1,28 @@
 package com.tencent.mm.util;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import com.tencent.mm.zip.ApkSigner;
+import com.tencent.mm.zip.ParallelExtractor;
+import com.tencent.mm.zip.RawZipEntry;
+import com.tencent.mm.zip.RawZipFile;
+import com.tencent.mm.zip.RawZipOutputStream;
+
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.util.Collection;
-import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.zip.CRC32;
+import java.util.Map;
+import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 public class FileOperation {
-    private static final int BUFFER = 8192;
+    private static final Logger LOGGER = Logger.getLogger(FileOperation.class.getName());
+    private static final int    BUFFER = 8192;
 
     public static final boolean fileExists(String filePath) {
         if (filePath == null) {
@@ -125,6 +130,49 @@ public class FileOperation {
         }
     }
 
+    /**
+     * 把source放到dest，之后source就不再需要了。
+     * 同一个分区直接改名，只改元数据；改名失败(例如跨分区)再用transferTo拷贝，然后删掉source
+     */
+    public static void moveFile(File source, File dest) throws IOException {
+        File parent = dest.getParentFile();
+        if (parent != null && (!parent.exists())) {
+            parent.mkdirs();
+        }
+        if (source.renameTo(dest)) {
+            return;
+        }
+        FileChannel in = null;
+        FileChannel out = null;
+        try {
+            in = new FileInputStream(source).getChannel();
+            out = new FileOutputStream(dest, false).getChannel();
+            long position = 0;
+            //每次都重新取大小，transferTo返回0的时候不再重试，避免死循环
+            while (position < in.size()) {
+                long count = in.transferTo(position, in.size() - position, out);
+                if (count <= 0) {
+                    break;
+                }
+                position += count;
+            }
+            if (position < in.size()) {
+                throw new IOException(String.format("can not copy %s to %s, copied %d of %d bytes",
+                    source.getAbsolutePath(), dest.getAbsolutePath(), position, in.size()));
+            }
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+            if (out != null) {
+                out.close();
+            }
+        }
+        if (!source.delete()) {
+            LOGGER.warning(String.format("can not delete the moved file, path=%s", source.getAbsolutePath()));
+        }
+    }
+
     public static boolean checkDirectory(String dir) {
         File dirObj = new File(dir);
         deleteDir(dirObj);
@@ -150,46 +198,45 @@ public class FileOperation {
 
     @SuppressWarnings("rawtypes")
     public static HashMap<String, Integer> unZipAPk(String fileName, String filePath) throws IOException {
+        return unZipAPk(fileName, filePath, 0);
+    }
+
+    /**
+     * @param threadCount 解压用的线程数，小于等于0的时候使用cpu的核数
+     */
+    public static HashMap<String, Integer> unZipAPk(String fileName, String filePath, int threadCount)
+        throws IOException {
         checkDirectory(filePath);
-        ZipFile zipFile = new ZipFile(fileName);
-        Enumeration emu = zipFile.entries();
+        HashMap<String, Integer> methods = new ParallelExtractor(threadCount).extract(new File(fileName), new File(filePath));
+        HashMap<String, Integer> compress = new HashMap<String, Integer>();
+        for (Map.Entry<String, Integer> entry : methods.entrySet()) {
+            compress.put(getCompatibleName(entry.getKey()), entry.getValue());
+        }
+        return compress;
+    }
+
+    /**
+     * 只读取apk中每个文件的压缩方式，不做解压
+     */
+    public static HashMap<String, Integer> getCompressData(RawZipFile zipFile) {
         HashMap<String, Integer> compress = new HashMap<String, Integer>();
-        while (emu.hasMoreElements()) {
-            ZipEntry entry = (ZipEntry) emu.nextElement();
+        for (RawZipEntry entry : zipFile.getEntries()) {
             if (entry.isDirectory()) {
-                new File(filePath, entry.getName()).mkdirs();
                 continue;
             }
-            BufferedInputStream bis = new BufferedInputStream(zipFile.getInputStream(entry));
-
-            File file = new File(filePath + File.separator + entry.getName());
-
-            File parent = file.getParentFile();
-            if (parent != null && (!parent.exists())) {
-                parent.mkdirs();
-            }
-            //要用linux的斜杠
-            String compatibaleresult = entry.getName();
-            if (compatibaleresult.contains("\\")) {
-                compatibaleresult = compatibaleresult.replace("\\", "/");
-            }
-            compress.put(compatibaleresult, entry.getMethod());
-            FileOutputStream fos = new FileOutputStream(file);
-            BufferedOutputStream bos = new BufferedOutputStream(fos, BUFFER);
-
-            byte[] buf = new byte[BUFFER];
-            int len = 0;
-            while ((len = bis.read(buf, 0, BUFFER)) != -1) {
-                fos.write(buf, 0, len);
-            }
-            bos.flush();
-            bos.close();
-            bis.close();
+            compress.put(getCompatibleName(entry.getName()), entry.getMethod());
         }
-        zipFile.close();
         return compress;
     }
 
+    public static String getCompatibleName(String name) {
+        //要用linux的斜杠
+        if (name.contains("\\")) {
+            name = name.replace("\\", "/");
+        }
+        return name;
+    }
+
     /**
      * zip list of file
      *
@@ -198,24 +245,43 @@ public class FileOperation {
      * @throws IOException
      */
     public static void zipFiles(Collection<File> resFileList, File zipFile, HashMap<String, Integer> compressData) throws IOException {
-        ZipOutputStream zipout = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile), BUFFER));
-        for (File resFile : resFileList) {
-            if (resFile.exists()) {
-                zipFile(resFile, zipout, "", compressData);
+        zipFiles(resFileList, zipFile, compressData, null);
+    }
+
+    /**
+     * 每个文件直接流式写进zip，crc和大小边写边算，写完再回写到local header，
+     * 不需要把整个文件读到内存里
+     *
+     * @param signer 不为null的时候，顺便把每一项的SHA1交给signer，最后直接写入签名
+     */
+    public static void zipFiles(Collection<File> resFileList, File zipFile, HashMap<String, Integer> compressData,
+                                ApkSigner signer) throws IOException {
+        RawZipOutputStream zipout = new RawZipOutputStream(zipFile);
+        zipout.setSigner(signer);
+        try {
+            byte[] buffer = new byte[BUFFER];
+            for (File resFile : resFileList) {
+                if (resFile.exists()) {
+                    zipFile(resFile, zipout, "", compressData, buffer);
+                }
+            }
+            if (signer != null) {
+                signer.sign(zipout);
             }
+        } finally {
+            zipout.close();
         }
-        zipout.close();
     }
 
-    private static void zipFile(File resFile, ZipOutputStream zipout, String rootpath, HashMap<String, Integer> compressData) throws IOException {
+    private static void zipFile(File resFile, RawZipOutputStream zipout, String rootpath,
+                                HashMap<String, Integer> compressData, byte[] buffer) throws IOException {
         rootpath = rootpath + (rootpath.trim().length() == 0 ? "" : File.separator) + resFile.getName();
         if (resFile.isDirectory()) {
             File[] fileList = resFile.listFiles();
             for (File file : fileList) {
-                zipFile(file, zipout, rootpath, compressData);
+                zipFile(file, zipout, rootpath, compressData, buffer);
             }
         } else {
-            final byte[] fileContents = readContents(resFile);
             //这里需要强转成linux格式，果然坑！！
             if (rootpath.contains("\\")) {
                 rootpath = rootpath.replace("\\", "/");
@@ -224,41 +290,34 @@ public class FileOperation {
                 throw new IOException(String.format("do not have the compress data path=%s", rootpath));
             }
             int compressMethod = compressData.get(rootpath);
-            ZipEntry entry = new ZipEntry(rootpath);
-
-            if (compressMethod == ZipEntry.DEFLATED) {
-                entry.setMethod(ZipEntry.DEFLATED);
-            } else {
-                entry.setMethod(ZipEntry.STORED);
-                entry.setSize(fileContents.length);
-                final CRC32 checksumCalculator = new CRC32();
-                checksumCalculator.update(fileContents);
-                entry.setCrc(checksumCalculator.getValue());
+            zipout.putNextEntry(rootpath, compressMethod == ZipEntry.DEFLATED
+                ? RawZipOutputStream.DEFLATED : RawZipOutputStream.STORED);
+            FileInputStream in = new FileInputStream(resFile);
+            try {
+                int length;
+                while ((length = in.read(buffer)) != -1) {
+                    zipout.write(buffer, 0, length);
+                }
+            } finally {
+                in.close();
             }
-            zipout.putNextEntry(entry);
-            zipout.write(fileContents);
-            zipout.flush();
             zipout.closeEntry();
         }
     }
 
-    private static byte[] readContents(final File file) throws IOException {
-        final ByteArrayOutputStream output = new ByteArrayOutputStream();
-        final int bufferSize = 4096;
+    /**
+     * 把整个流读到内存里，读完会关闭流
+     */
+    public static byte[] readContents(InputStream in) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(BUFFER);
         try {
-            final FileInputStream in = new FileInputStream(file);
-            final BufferedInputStream bIn = new BufferedInputStream(in);
+            byte[] buffer = new byte[BUFFER];
             int length;
-            byte[] buffer = new byte[bufferSize];
-            byte[] bufferCopy;
-            while ((length = bIn.read(buffer, 0, bufferSize)) != -1) {
-                bufferCopy = new byte[length];
-                System.arraycopy(buffer, 0, bufferCopy, 0, length);
-                output.write(bufferCopy);
+            while ((length = in.read(buffer)) != -1) {
+                output.write(buffer, 0, length);
             }
-            bIn.close();
         } finally {
-            output.close();
+            in.close();
         }
         return output.toByteArray();
     }
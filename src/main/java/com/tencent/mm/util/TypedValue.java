@@ -24,16 +24,6 @@ import java.util.zip.ZipEntry;
 public class TypedValue {
     public static final String UNZIP_FILE_PATH = "temp";
 
-    public static final String COMMAND_7ZIP      = "7za";
-    public static final String COMMAND_ZIPALIGIN = "zipalign";
-
-    public static final String OUT_7ZIP_FILE_PATH = "out_7zip";
-
-    /**
-     * 是7zip压缩使用，把制定为不压缩的拷到一起
-     */
-    public static final String STORED_FILE_PATH = "storedfiles";
-
     public static final String RES_FILE_PATH = "r";
 
     public static final String RES_MAPPING_FILE = "resource_mapping_";
@@ -46,6 +36,11 @@ public class TypedValue {
 
     public static final String TXT_FILE = ".txt";
 
+    /**
+     * streaming模式下中间文件默认最多在内存里放这么多，超过了才写到输出目录
+     */
+    public static final long MEMORY_DIR_THRESHOLD = 64 * 1024 * 1024;
+
 
     /**
      * The value contains no data.
@@ -0,0 +1,378 @@
+package com.tencent.mm.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 不调用jarsigner，直接在进程里做v1(jar)签名。
+ * <p>
+ * 写apk的时候把每一项解压后内容的SHA1记下来，全部写完之后在同一个apk的最后追加MANIFEST.MF，.SF和.RSA，
+ * 不需要先写一个没签名的apk再拷贝一遍
+ */
+public class ApkSigner {
+    private static final Charset UTF8           = Charset.forName("UTF-8");
+    private static final String  META_INF       = "META-INF/";
+    private static final String  MANIFEST_NAME  = META_INF + "MANIFEST.MF";
+    private static final String  CREATED_BY     = "1.0 (AndResGuard)";
+    private static final int     MAX_LINE_BYTES = 72;
+    private static final int     BUFFER         = 8192;
+
+    private static final String OID_SIGNED_DATA = "1.2.840.113549.1.7.2";
+    private static final String OID_DATA        = "1.2.840.113549.1.7.1";
+    private static final String OID_SHA1        = "1.3.14.3.2.26";
+    private static final String OID_RSA         = "1.2.840.113549.1.1.1";
+    private static final String OID_DSA         = "1.2.840.10040.4.1";
+    private static final String OID_EC          = "1.2.840.10045.2.1";
+
+    private static final char[] BASE64 =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final PrivateKey          mKey;
+    private final X509Certificate[]   mCertChain;
+    private final String              mSignatureName;
+    private final Map<String, byte[]> mDigests;
+
+    public ApkSigner(KeyStore.PrivateKeyEntry key, String alias) {
+        mKey = key.getPrivateKey();
+        Certificate[] chain = key.getCertificateChain();
+        mCertChain = new X509Certificate[chain.length];
+        for (int i = 0; i < chain.length; i++) {
+            mCertChain[i] = (X509Certificate) chain[i];
+        }
+        mSignatureName = getSignatureName(alias);
+        mDigests = new LinkedHashMap<String, byte[]>();
+    }
+
+    /**
+     * 只在开始的时候读一次keystore，先按JKS读，不行再试PKCS12
+     */
+    public static KeyStore.PrivateKeyEntry loadKey(File keystore, String storePass, String keyPass, String alias)
+        throws IOException {
+        char[] storePassword = storePass != null ? storePass.toCharArray() : null;
+        char[] keyPassword = keyPass != null ? keyPass.toCharArray() : storePassword;
+        KeyStore ks = null;
+        IOException lastError = null;
+        for (String type : new String[]{"JKS", "PKCS12"}) {
+            FileInputStream in = new FileInputStream(keystore);
+            try {
+                ks = KeyStore.getInstance(type);
+                ks.load(in, storePassword);
+                break;
+            } catch (GeneralSecurityException e) {
+                lastError = new IOException(String.format("can not load the keystore %s, type=%s",
+                    keystore.getAbsolutePath(), type), e);
+            } catch (IOException e) {
+                lastError = e;
+            } finally {
+                in.close();
+            }
+            ks = null;
+        }
+        if (ks == null) {
+            throw lastError;
+        }
+        try {
+            if (!ks.isKeyEntry(alias)) {
+                throw new IOException(String.format("can not found the key alias %s in the keystore %s",
+                    alias, keystore.getAbsolutePath()));
+            }
+            KeyStore.Entry entry = ks.getEntry(alias, new KeyStore.PasswordProtection(keyPassword));
+            if (!(entry instanceof KeyStore.PrivateKeyEntry)) {
+                throw new IOException(String.format("the key alias %s is not a private key", alias));
+            }
+            return (KeyStore.PrivateKeyEntry) entry;
+        } catch (GeneralSecurityException e) {
+            throw new IOException(String.format("can not get the key %s from the keystore %s, is the keypass correct?",
+                alias, keystore.getAbsolutePath()), e);
+        }
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 记录某一项解压后内容的SHA1
+     */
+    public synchronized void putDigest(String name, byte[] digest) {
+        mDigests.put(name, digest);
+    }
+
+    public void addEntry(String name, InputStream in) throws IOException {
+        putDigest(name, digest(in));
+    }
+
+    /**
+     * 在out的最后写入签名文件，之前写进out的每一项都已经记下了SHA1，写完签名之后out只剩close
+     */
+    public void sign(RawZipOutputStream out) throws IOException {
+        out.closeEntry();
+        //签名文件自己不需要摘要
+        out.setSigner(null);
+
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        ByteArrayOutputStream sf = new ByteArrayOutputStream();
+        writeAttribute(manifest, "Manifest-Version", "1.0");
+        writeAttribute(manifest, "Created-By", CREATED_BY);
+        manifest.write('\r');
+        manifest.write('\n');
+
+        ByteArrayOutputStream sections = new ByteArrayOutputStream();
+        ByteArrayOutputStream section = new ByteArrayOutputStream();
+        MessageDigest md = newDigest();
+        synchronized (this) {
+            for (Map.Entry<String, byte[]> entry : mDigests.entrySet()) {
+                String name = entry.getKey();
+                if (name.endsWith("/") || isSignatureFile(name)) {
+                    continue;
+                }
+                section.reset();
+                writeAttribute(section, "Name", name);
+                writeAttribute(section, "SHA1-Digest", base64(entry.getValue()));
+                section.write('\r');
+                section.write('\n');
+                section.writeTo(manifest);
+
+                writeAttribute(sections, "Name", name);
+                writeAttribute(sections, "SHA1-Digest", base64(md.digest(section.toByteArray())));
+                sections.write('\r');
+                sections.write('\n');
+            }
+        }
+        byte[] manifestBytes = manifest.toByteArray();
+
+        writeAttribute(sf, "Signature-Version", "1.0");
+        writeAttribute(sf, "Created-By", CREATED_BY);
+        writeAttribute(sf, "SHA1-Digest-Manifest", base64(md.digest(manifestBytes)));
+        sf.write('\r');
+        sf.write('\n');
+        sections.writeTo(sf);
+        byte[] sfBytes = sf.toByteArray();
+        byte[] signatureBlock = signatureBlock(sfBytes);
+
+        out.putNextEntry(MANIFEST_NAME, RawZipOutputStream.DEFLATED);
+        out.write(manifestBytes);
+        out.putNextEntry(META_INF + mSignatureName + ".SF", RawZipOutputStream.DEFLATED);
+        out.write(sfBytes);
+        out.putNextEntry(META_INF + mSignatureName + "." + getBlockExtension(), RawZipOutputStream.DEFLATED);
+        out.write(signatureBlock);
+        out.closeEntry();
+    }
+
+    private String getBlockExtension() {
+        String algorithm = mKey.getAlgorithm();
+        if ("EC".equalsIgnoreCase(algorithm)) {
+            return "EC";
+        } else if ("DSA".equalsIgnoreCase(algorithm)) {
+            return "DSA";
+        }
+        return "RSA";
+    }
+
+    /**
+     * PKCS#7 SignedData，不带content，签的是.SF文件
+     */
+    private byte[] signatureBlock(byte[] sfBytes) throws IOException {
+        String algorithm = mKey.getAlgorithm();
+        String signatureAlgorithm;
+        byte[] keyAlgorithm;
+        if ("EC".equalsIgnoreCase(algorithm)) {
+            signatureAlgorithm = "SHA1withECDSA";
+            keyAlgorithm = derSequence(derOid(OID_EC));
+        } else if ("DSA".equalsIgnoreCase(algorithm)) {
+            signatureAlgorithm = "SHA1withDSA";
+            keyAlgorithm = derSequence(derOid(OID_DSA));
+        } else {
+            signatureAlgorithm = "SHA1withRSA";
+            keyAlgorithm = derSequence(derOid(OID_RSA), derNull());
+        }
+        byte[] signature;
+        try {
+            Signature signer = Signature.getInstance(signatureAlgorithm);
+            signer.initSign(mKey);
+            signer.update(sfBytes);
+            signature = signer.sign();
+        } catch (GeneralSecurityException e) {
+            throw new IOException(String.format("can not sign the apk with %s", signatureAlgorithm), e);
+        }
+
+        byte[][] certs = new byte[mCertChain.length][];
+        try {
+            for (int i = 0; i < mCertChain.length; i++) {
+                certs[i] = mCertChain[i].getEncoded();
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException("can not encode the signing certificate", e);
+        }
+        X509Certificate cert = mCertChain[0];
+        byte[] sha1 = derSequence(derOid(OID_SHA1), derNull());
+        byte[] signerInfo = derSequence(
+            derInteger(BigInteger.ONE),
+            derSequence(cert.getIssuerX500Principal().getEncoded(), derInteger(cert.getSerialNumber())),
+            sha1,
+            keyAlgorithm,
+            der(0x04, signature)
+        );
+        byte[] signedData = derSequence(
+            derInteger(BigInteger.ONE),
+            der(0x31, sha1),
+            derSequence(derOid(OID_DATA)),
+            der(0xa0, certs),
+            der(0x31, signerInfo)
+        );
+        return derSequence(derOid(OID_SIGNED_DATA), der(0xa0, signedData));
+    }
+
+    private static byte[] digest(InputStream in) throws IOException {
+        MessageDigest md = newDigest();
+        try {
+            byte[] buffer = new byte[BUFFER];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                md.update(buffer, 0, length);
+            }
+        } finally {
+            in.close();
+        }
+        return md.digest();
+    }
+
+    /**
+     * jarsigner的做法，用别名的大写作为签名文件的名字，最多8个字符
+     */
+    private static String getSignatureName(String alias) {
+        String name = alias == null ? "CERT" : alias.toUpperCase(Locale.ENGLISH);
+        if (name.length() > 8) {
+            name = name.substring(0, 8);
+        }
+        StringBuilder builder = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if ((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_') {
+                builder.append(c);
+            } else {
+                builder.append('_');
+            }
+        }
+        return builder.length() == 0 ? "CERT" : builder.toString();
+    }
+
+    private static boolean isSignatureFile(String name) {
+        if (!name.startsWith(META_INF) || name.indexOf('/', META_INF.length()) != -1) {
+            return false;
+        }
+        String upper = name.toUpperCase(Locale.ENGLISH);
+        return upper.equals(MANIFEST_NAME) || upper.endsWith(".SF") || upper.endsWith(".RSA")
+            || upper.endsWith(".DSA") || upper.endsWith(".EC");
+    }
+
+    /**
+     * manifest里面每行最多72个字节，多出来的另起一行，以空格开头
+     */
+    private static void writeAttribute(ByteArrayOutputStream out, String name, String value) {
+        byte[] line = (name + ": " + value).getBytes(UTF8);
+        int offset = 0;
+        int length = Math.min(line.length, MAX_LINE_BYTES);
+        while (true) {
+            out.write(line, offset, length);
+            out.write('\r');
+            out.write('\n');
+            offset += length;
+            if (offset >= line.length) {
+                break;
+            }
+            out.write(' ');
+            length = Math.min(line.length - offset, MAX_LINE_BYTES - 1);
+        }
+    }
+
+    private static String base64(byte[] data) {
+        StringBuilder builder = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b = (data[i] & 0xff) << 16;
+            if (i + 1 < data.length) {
+                b |= (data[i + 1] & 0xff) << 8;
+            }
+            if (i + 2 < data.length) {
+                b |= data[i + 2] & 0xff;
+            }
+            builder.append(BASE64[(b >>> 18) & 0x3f]);
+            builder.append(BASE64[(b >>> 12) & 0x3f]);
+            builder.append(i + 1 < data.length ? BASE64[(b >>> 6) & 0x3f] : '=');
+            builder.append(i + 2 < data.length ? BASE64[b & 0x3f] : '=');
+        }
+        return builder.toString();
+    }
+
+    private static byte[] der(int tag, byte[]... contents) {
+        int length = 0;
+        for (byte[] content : contents) {
+            length += content.length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int bytes = length > 0xffffff ? 4 : length > 0xffff ? 3 : length > 0xff ? 2 : 1;
+            out.write(0x80 | bytes);
+            for (int i = bytes - 1; i >= 0; i--) {
+                out.write(length >>> (i * 8));
+            }
+        }
+        for (byte[] content : contents) {
+            out.write(content, 0, content.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] derSequence(byte[]... contents) {
+        return der(0x30, contents);
+    }
+
+    private static byte[] derInteger(BigInteger value) {
+        return der(0x02, value.toByteArray());
+    }
+
+    private static byte[] derNull() {
+        return new byte[]{0x05, 0x00};
+    }
+
+    private static byte[] derOid(String oid) {
+        String[] parts = oid.split("\\.");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(Integer.parseInt(parts[0]) * 40 + Integer.parseInt(parts[1]));
+        for (int i = 2; i < parts.length; i++) {
+            long value = Long.parseLong(parts[i]);
+            int shift = 0;
+            while ((value >>> (shift + 7)) != 0) {
+                shift += 7;
+            }
+            for (; shift > 0; shift -= 7) {
+                out.write((int) (0x80 | ((value >>> shift) & 0x7f)));
+            }
+            out.write((int) (value & 0x7f));
+        }
+        return der(0x06, out.toByteArray());
+    }
+}
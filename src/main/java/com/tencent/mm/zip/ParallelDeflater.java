@@ -0,0 +1,251 @@
+package com.tencent.mm.zip;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * 用多个线程把一个zip里面的项重新压缩一遍，代替原来的7z极限压缩。
+ * <p>
+ * 每一项在工作线程里面整块解压，算crc，再用最高级别deflate，
+ * 写文件只在调用线程里面按原来的顺序进行，所以输出的项顺序和原来完全一样。
+ * 同时在内存里的项按解压后的总大小限制，太大的项不进线程，直接在调用线程里面边读边压，
+ * 不会把整个apk都读进来
+ */
+public class ParallelDeflater {
+    //已经交给线程还没写出去的项，解压后的大小加起来最多这么多
+    private static final long MAX_PENDING_BYTES = 32 * 1024 * 1024;
+    //超过这个大小的项在调用线程里面流式压缩
+    private static final long MAX_PARALLEL_SIZE = 4 * 1024 * 1024;
+    private static final int  BUFFER            = 64 * 1024;
+
+    private final int mThreadCount;
+
+    /**
+     * @param threadCount 小于等于0的时候使用cpu的核数
+     */
+    public ParallelDeflater(int threadCount) {
+        mThreadCount = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * 把src重新压缩到dest，compressData里面指定为STORED的项保持不压缩，其他的都用deflate压缩，
+     * 没有出现在compressData里面的项（比如签名文件）也一样会压缩。
+     * 内容不变，所以v1签名依然有效
+     */
+    public void repackage(File src, File dest, Map<String, Integer> compressData) throws IOException {
+        RawZipFile in = new RawZipFile(src);
+        ExecutorService executor = Executors.newFixedThreadPool(mThreadCount, new ThreadFactory() {
+            private int mIndex = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "resguard-deflater-" + (mIndex++));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            RawZipOutputStream out = new RawZipOutputStream(dest);
+            out.setLevel(Deflater.BEST_COMPRESSION);
+            try {
+                List<RawZipEntry> entries = in.getEntries();
+                List<Future<CompressResult>> futures = new ArrayList<Future<CompressResult>>(entries.size());
+                byte[] buffer = new byte[BUFFER];
+                long pendingBytes = 0;
+                int submitted = 0;
+                for (int i = 0; i < entries.size(); i++) {
+                    //在内存上限以内尽量多提交几项，当前这一项无论多大都要提交
+                    while (submitted < entries.size()) {
+                        RawZipEntry next = entries.get(submitted);
+                        boolean parallel = isParallel(next, compressData);
+                        if (parallel && submitted > i && pendingBytes + next.getSize() > MAX_PENDING_BYTES) {
+                            break;
+                        }
+                        if (parallel) {
+                            futures.add(executor.submit(new CompressTask(in, next, isStored(next, compressData))));
+                            pendingBytes += next.getSize();
+                        } else {
+                            futures.add(null);
+                        }
+                        submitted++;
+                    }
+                    RawZipEntry entry = entries.get(i);
+                    Future<CompressResult> future = futures.set(i, null);
+                    if (future != null) {
+                        CompressResult result = getResult(future);
+                        pendingBytes -= entry.getSize();
+                        out.writeCompressedEntry(result.mEntry, result.mData, result.mLength);
+                    } else if (isRawCopy(entry, compressData)) {
+                        out.copyEntry(in, entry, entry.getName());
+                    } else {
+                        streamEntry(in, entry, isStored(entry, compressData), out, buffer);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            executor.shutdownNow();
+            in.close();
+        }
+    }
+
+    private static boolean isStored(RawZipEntry entry, Map<String, Integer> compressData) {
+        Integer method = compressData != null ? compressData.get(entry.getName()) : null;
+        return method != null && method == RawZipOutputStream.STORED;
+    }
+
+    /**
+     * 本来就是STORED并且也要求STORED的，直接原样拷贝，不需要交给线程
+     */
+    private static boolean isRawCopy(RawZipEntry entry, Map<String, Integer> compressData) {
+        return entry.isDirectory() || (isStored(entry, compressData) && entry.getMethod() == RawZipOutputStream.STORED);
+    }
+
+    private static boolean isParallel(RawZipEntry entry, Map<String, Integer> compressData) {
+        return !isRawCopy(entry, compressData) && entry.getSize() <= MAX_PARALLEL_SIZE;
+    }
+
+    /**
+     * 在调用线程里面边解压边写，内存占用只有一个buffer
+     */
+    private static void streamEntry(RawZipFile in, RawZipEntry srcEntry, boolean stored, RawZipOutputStream out,
+                                    byte[] buffer) throws IOException {
+        RawZipEntry entry = newEntry(srcEntry, stored);
+        out.putNextEntry(entry);
+        InputStream is = in.getInputStream(srcEntry);
+        try {
+            int length;
+            while ((length = is.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+        } finally {
+            is.close();
+        }
+        out.closeEntry();
+        if (entry.getCrc() != srcEntry.getCrc()) {
+            throw new ZipException(String.format("invalid entry crc, entry=%s", srcEntry.getName()));
+        }
+    }
+
+    private static RawZipEntry newEntry(RawZipEntry srcEntry, boolean stored) {
+        RawZipEntry entry = new RawZipEntry(srcEntry.getName(), srcEntry);
+        //原来的压缩选项位已经没有意义了
+        entry.setFlags(0);
+        entry.setMethod(stored ? RawZipOutputStream.STORED : RawZipOutputStream.DEFLATED);
+        return entry;
+    }
+
+    private static CompressResult getResult(Future<CompressResult> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while compressing the zip entries");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static class CompressResult {
+        private final RawZipEntry mEntry;
+        private final byte[]      mData;
+        private final int         mLength;
+
+        CompressResult(RawZipEntry entry, byte[] data, int length) {
+            mEntry = entry;
+            mData = data;
+            mLength = length;
+        }
+    }
+
+    private static class CompressTask implements Callable<CompressResult> {
+        private final RawZipFile  mZipFile;
+        private final RawZipEntry mSrcEntry;
+        private final boolean     mStored;
+
+        CompressTask(RawZipFile zipFile, RawZipEntry srcEntry, boolean stored) {
+            mZipFile = zipFile;
+            mSrcEntry = srcEntry;
+            mStored = stored;
+        }
+
+        @Override
+        public CompressResult call() throws IOException {
+            byte[] data = readEntry();
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            if (crc.getValue() != mSrcEntry.getCrc()) {
+                throw new ZipException(String.format("invalid entry crc, entry=%s", mSrcEntry.getName()));
+            }
+
+            RawZipEntry entry = newEntry(mSrcEntry, mStored);
+            if (mStored) {
+                return new CompressResult(entry, data, data.length);
+            }
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                byte[] buffer = new byte[Math.max(data.length / 2, 64)];
+                int length = 0;
+                while (!deflater.finished()) {
+                    if (length == buffer.length) {
+                        byte[] grow = new byte[buffer.length * 2];
+                        System.arraycopy(buffer, 0, grow, 0, length);
+                        buffer = grow;
+                    }
+                    length += deflater.deflate(buffer, length, buffer.length - length);
+                }
+                return new CompressResult(entry, buffer, length);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private byte[] readEntry() throws IOException {
+            if (mSrcEntry.getSize() > Integer.MAX_VALUE - 8) {
+                throw new ZipException(String.format("entry is too large to compress, entry=%s", mSrcEntry.getName()));
+            }
+            byte[] data = new byte[(int) mSrcEntry.getSize()];
+            InputStream is = mZipFile.getInputStream(mSrcEntry);
+            try {
+                int offset = 0;
+                while (offset < data.length) {
+                    int read = is.read(data, offset, data.length - offset);
+                    if (read == -1) {
+                        throw new ZipException(String.format("unexpected end of zip entry %s", mSrcEntry.getName()));
+                    }
+                    offset += read;
+                }
+            } finally {
+                is.close();
+            }
+            return data;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.tencent.mm.zip;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 用多个线程把apk解压到一个目录。
+ * <p>
+ * 先在调用线程里把所有要用到的目录一次建好，然后每个工作线程打开自己的ZipFile，
+ * 轮流领取下一项解压，每个线程复用一块较大的buffer，读满了才写一次文件
+ */
+public class ParallelExtractor {
+    private static final int BUFFER_SIZE = 256 * 1024;
+    //项数太少的时候开线程不划算
+    private static final int MIN_ENTRIES_PER_THREAD = 16;
+
+    private final int mThreadCount;
+
+    /**
+     * @param threadCount 小于等于0的时候使用cpu的核数
+     */
+    public ParallelExtractor(int threadCount) {
+        mThreadCount = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * 把zipFile里面的所有文件解压到destDir
+     *
+     * @return 每一项的名字(原样，没有做分隔符转换)和压缩方式
+     */
+    public HashMap<String, Integer> extract(File zipFile, File destDir) throws IOException {
+        HashMap<String, Integer> methods = new HashMap<String, Integer>();
+        List<String> names = new ArrayList<String>();
+        HashSet<File> dirs = new HashSet<File>();
+        ZipFile zip = new ZipFile(zipFile);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                File file = new File(destDir, entry.getName());
+                if (entry.isDirectory()) {
+                    dirs.add(file);
+                    continue;
+                }
+                File parent = file.getParentFile();
+                if (parent != null) {
+                    dirs.add(parent);
+                }
+                //重复的名字只解压一次
+                if (methods.put(entry.getName(), entry.getMethod()) == null) {
+                    names.add(entry.getName());
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        //每个目录只建一次
+        for (File dir : dirs) {
+            dir.mkdirs();
+        }
+
+        int threadCount = Math.min(mThreadCount, Math.max(1, names.size() / MIN_ENTRIES_PER_THREAD));
+        AtomicInteger next = new AtomicInteger();
+        if (threadCount == 1) {
+            new ExtractTask(zipFile, destDir, names, next).call();
+            return methods;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private int mIndex = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "resguard-extractor-" + (mIndex++));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executor.submit(new ExtractTask(zipFile, destDir, names, next)));
+            }
+            for (Future<Void> future : futures) {
+                waitFor(future);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return methods;
+    }
+
+    private static void waitFor(Future<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while extracting the zip entries");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * 一个工作线程，用自己的ZipFile和buffer，不停领取下一项直到全部解压完
+     */
+    private static class ExtractTask implements Callable<Void> {
+        private final File          mZipFile;
+        private final File          mDestDir;
+        private final List<String>  mNames;
+        private final AtomicInteger mNext;
+
+        ExtractTask(File zipFile, File destDir, List<String> names, AtomicInteger next) {
+            mZipFile = zipFile;
+            mDestDir = destDir;
+            mNames = names;
+            mNext = next;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ZipFile zip = new ZipFile(mZipFile);
+            try {
+                for (int i = mNext.getAndIncrement(); i < mNames.size(); i = mNext.getAndIncrement()) {
+                    String name = mNames.get(i);
+                    ZipEntry entry = zip.getEntry(name);
+                    if (entry == null) {
+                        throw new IOException("can not found zip entry " + name);
+                    }
+                    extractEntry(zip, entry, new File(mDestDir, name), buffer);
+                }
+            } finally {
+                zip.close();
+            }
+            return null;
+        }
+
+        private static void extractEntry(ZipFile zip, ZipEntry entry, File file, byte[] buffer) throws IOException {
+            InputStream is = zip.getInputStream(entry);
+            try {
+                FileOutputStream out = new FileOutputStream(file);
+                try {
+                    int count = 0;
+                    int length;
+                    while ((length = is.read(buffer, count, buffer.length - count)) != -1) {
+                        count += length;
+                        //buffer满了才写一次
+                        if (count == buffer.length) {
+                            out.write(buffer, 0, count);
+                            count = 0;
+                        }
+                    }
+                    out.write(buffer, 0, count);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                is.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.tencent.mm.zip;
+
+/**
+ * 一个zip文件项在中央目录里面的信息，包括压缩后的数据在文件中的位置
+ */
+public class RawZipEntry {
+    private final String mName;
+    private int  mMethod;
+    private int  mFlags;
+    private int  mDosTime;
+    private long mCrc;
+    private long mCompressedSize;
+    private long mSize;
+    private long mLocalHeaderOffset;
+    private long mDataOffset = -1;
+
+    public RawZipEntry(String name) {
+        mName = name;
+    }
+
+    RawZipEntry(String name, RawZipEntry src) {
+        this(name);
+        mMethod = src.mMethod;
+        mFlags = src.mFlags;
+        mDosTime = src.mDosTime;
+        mCrc = src.mCrc;
+        mCompressedSize = src.mCompressedSize;
+        mSize = src.mSize;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public boolean isDirectory() {
+        return mName.endsWith("/");
+    }
+
+    public int getMethod() {
+        return mMethod;
+    }
+
+    void setMethod(int method) {
+        mMethod = method;
+    }
+
+    int getFlags() {
+        return mFlags;
+    }
+
+    void setFlags(int flags) {
+        mFlags = flags;
+    }
+
+    int getDosTime() {
+        return mDosTime;
+    }
+
+    void setDosTime(int dosTime) {
+        mDosTime = dosTime;
+    }
+
+    public long getCrc() {
+        return mCrc;
+    }
+
+    void setCrc(long crc) {
+        mCrc = crc;
+    }
+
+    public long getCompressedSize() {
+        return mCompressedSize;
+    }
+
+    void setCompressedSize(long compressedSize) {
+        mCompressedSize = compressedSize;
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+
+    void setSize(long size) {
+        mSize = size;
+    }
+
+    long getLocalHeaderOffset() {
+        return mLocalHeaderOffset;
+    }
+
+    void setLocalHeaderOffset(long localHeaderOffset) {
+        mLocalHeaderOffset = localHeaderOffset;
+    }
+
+    long getDataOffset() {
+        return mDataOffset;
+    }
+
+    void setDataOffset(long dataOffset) {
+        mDataOffset = dataOffset;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
@@ -0,0 +1,289 @@
+package com.tencent.mm.zip;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * 只读的zip文件，直接解析中央目录，可以拿到每一项压缩后的原始数据。
+ * 读取都是按位置读的，可以在多个线程里面同时读不同的项
+ */
+public class RawZipFile implements Closeable {
+    static final int LOCAL_HEADER_SIGNATURE   = 0x04034b50;
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    static final int END_HEADER_SIGNATURE     = 0x06054b50;
+    static final int LOCAL_HEADER_SIZE        = 30;
+    static final int CENTRAL_HEADER_SIZE      = 46;
+    static final int END_HEADER_SIZE          = 22;
+
+    private static final Charset UTF8       = Charset.forName("UTF-8");
+    private static final int     MAX_COMMENT = 0xffff;
+
+    private final File                     mFile;
+    private final RandomAccessFile         mRaf;
+    private final FileChannel              mChannel;
+    private final List<RawZipEntry>        mEntries;
+    private final Map<String, RawZipEntry> mEntryMap;
+
+    public RawZipFile(File file) throws IOException {
+        mFile = file;
+        mRaf = new RandomAccessFile(file, "r");
+        mChannel = mRaf.getChannel();
+        mEntries = new ArrayList<RawZipEntry>();
+        mEntryMap = new LinkedHashMap<String, RawZipEntry>();
+        try {
+            readCentralDirectory();
+        } catch (IOException e) {
+            mRaf.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public List<RawZipEntry> getEntries() {
+        return Collections.unmodifiableList(mEntries);
+    }
+
+    public RawZipEntry getEntry(String name) {
+        return mEntryMap.get(name);
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * 压缩后的原始数据，不做解压
+     */
+    public InputStream getRawInputStream(RawZipEntry entry) throws IOException {
+        return new ChannelInputStream(mChannel, getDataOffset(entry), entry.getCompressedSize());
+    }
+
+    /**
+     * 解压后的数据
+     */
+    public InputStream getInputStream(RawZipEntry entry) throws IOException {
+        InputStream raw = getRawInputStream(entry);
+        if (entry.getMethod() == RawZipOutputStream.STORED) {
+            return raw;
+        }
+        if (entry.getMethod() != RawZipOutputStream.DEFLATED) {
+            raw.close();
+            throw new ZipException(String.format("unsupported compression method %d, entry=%s", entry.getMethod(), entry.getName()));
+        }
+        final Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(raw, inflater) {
+            private boolean mClosed = false;
+            private boolean mEof    = false;
+
+            @Override
+            protected void fill() throws IOException {
+                if (mEof) {
+                    throw new EOFException("unexpected end of zip entry data");
+                }
+                len = in.read(buf, 0, buf.length);
+                if (len == -1) {
+                    //nowrap的inflater在结尾需要多给一个字节
+                    buf[0] = 0;
+                    len = 1;
+                    mEof = true;
+                }
+                inf.setInput(buf, 0, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!mClosed) {
+                    mClosed = true;
+                    super.close();
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * 把某一项压缩后的原始数据直接写到另外一个文件里面，不经过java堆
+     */
+    long transferRawTo(RawZipEntry entry, FileChannel target) throws IOException {
+        long position = getDataOffset(entry);
+        long remaining = entry.getCompressedSize();
+        while (remaining > 0) {
+            long count = mChannel.transferTo(position, remaining, target);
+            if (count <= 0) {
+                throw new EOFException(String.format("unexpected end of zip entry %s", entry.getName()));
+            }
+            position += count;
+            remaining -= count;
+        }
+        return entry.getCompressedSize();
+    }
+
+    long getDataOffset(RawZipEntry entry) throws IOException {
+        if (entry.getDataOffset() < 0) {
+            ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(header, entry.getLocalHeaderOffset());
+            if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                throw new ZipException(String.format("invalid local header, entry=%s", entry.getName()));
+            }
+            int nameLength = header.getShort(26) & 0xffff;
+            int extraLength = header.getShort(28) & 0xffff;
+            entry.setDataOffset(entry.getLocalHeaderOffset() + LOCAL_HEADER_SIZE + nameLength + extraLength);
+        }
+        return entry.getDataOffset();
+    }
+
+    private void readCentralDirectory() throws IOException {
+        long fileSize = mChannel.size();
+        if (fileSize < END_HEADER_SIZE) {
+            throw new ZipException("zip file is too small: " + mFile.getAbsolutePath());
+        }
+        //从后往前找中央目录的结尾，后面可能带着注释
+        int tailSize = (int) Math.min(fileSize, END_HEADER_SIZE + MAX_COMMENT);
+        ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(tail, fileSize - tailSize);
+        int endPos = -1;
+        for (int i = tailSize - END_HEADER_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_HEADER_SIGNATURE) {
+                endPos = i;
+                break;
+            }
+        }
+        if (endPos == -1) {
+            throw new ZipException("can not found the end of central directory: " + mFile.getAbsolutePath());
+        }
+        int count = tail.getShort(endPos + 10) & 0xffff;
+        long cdSize = tail.getInt(endPos + 12) & 0xffffffffL;
+        long cdOffset = tail.getInt(endPos + 16) & 0xffffffffL;
+        if (cdOffset + cdSize > fileSize) {
+            throw new ZipException("invalid central directory offset: " + mFile.getAbsolutePath());
+        }
+
+        ByteBuffer cd = ByteBuffer.allocate((int) cdSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(cd, cdOffset);
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (pos + CENTRAL_HEADER_SIZE > cdSize || cd.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("invalid central directory header: " + mFile.getAbsolutePath());
+            }
+            int nameLength = cd.getShort(pos + 28) & 0xffff;
+            int extraLength = cd.getShort(pos + 30) & 0xffff;
+            int commentLength = cd.getShort(pos + 32) & 0xffff;
+            String name = new String(cd.array(), pos + CENTRAL_HEADER_SIZE, nameLength, UTF8);
+
+            RawZipEntry entry = new RawZipEntry(name);
+            entry.setFlags(cd.getShort(pos + 8) & 0xffff);
+            entry.setMethod(cd.getShort(pos + 10) & 0xffff);
+            entry.setDosTime(cd.getInt(pos + 12));
+            entry.setCrc(cd.getInt(pos + 16) & 0xffffffffL);
+            entry.setCompressedSize(cd.getInt(pos + 20) & 0xffffffffL);
+            entry.setSize(cd.getInt(pos + 24) & 0xffffffffL);
+            entry.setLocalHeaderOffset(cd.getInt(pos + 42) & 0xffffffffL);
+            mEntries.add(entry);
+            mEntryMap.put(name, entry);
+
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = mChannel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("unexpected end of zip file: " + mFile.getAbsolutePath());
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mRaf.close();
+    }
+
+    /**
+     * 按位置读取的输入流，不会改变channel本身的位置
+     */
+    private static class ChannelInputStream extends InputStream {
+        private static final int BUFFER = 8192;
+
+        private final FileChannel mChannel;
+        private final ByteBuffer  mBuffer;
+        private       long        mPosition;
+        private       long        mRemaining;
+
+        ChannelInputStream(FileChannel channel, long position, long length) {
+            mChannel = channel;
+            mPosition = position;
+            mRemaining = length;
+            mBuffer = ByteBuffer.allocate((int) Math.min(BUFFER, Math.max(length, 1)));
+            mBuffer.limit(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return mBuffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, mBuffer.remaining() + mRemaining);
+        }
+
+        private boolean fill() throws IOException {
+            if (mBuffer.hasRemaining()) {
+                return true;
+            }
+            if (mRemaining <= 0) {
+                return false;
+            }
+            mBuffer.clear();
+            if (mRemaining < mBuffer.capacity()) {
+                mBuffer.limit((int) mRemaining);
+            }
+            int read = mChannel.read(mBuffer, mPosition);
+            if (read <= 0) {
+                throw new EOFException("unexpected end of zip entry data");
+            }
+            mPosition += read;
+            mRemaining -= read;
+            mBuffer.flip();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.tencent.mm.zip;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * 写zip文件，和ZipOutputStream不同的是可以把其他zip里面压缩好的数据原样拷贝过来，
+ * 只改名字，不需要解压再压缩。
+ * <p>
+ * 新写入的项在closeEntry的时候回写crc和大小，所以不需要data descriptor，也不需要提前知道crc。
+ * 写local header的时候就对齐好不压缩的项，不需要再跑zipalign
+ */
+public class RawZipOutputStream extends OutputStream {
+    public static final int STORED   = 0;
+    public static final int DEFLATED = 8;
+
+    private static final Charset UTF8         = Charset.forName("UTF-8");
+    private static final int     BUFFER       = 64 * 1024;
+    private static final int     FLAG_UTF8    = 0x0800;
+    //bit3表示用了data descriptor，我们写的头里面都是真实的值
+    private static final int     FLAG_MASK    = 0x0806;
+    private static final int     VERSION_20   = 20;
+    private static final int     VERSION_10   = 10;
+    //跟zipalign一样，不压缩的项按4字节对齐，so按页对齐，这样可以直接mmap
+    private static final int     ALIGNMENT    = 4;
+    private static final int     SO_ALIGNMENT = 4096;
+
+    private final RandomAccessFile  mRaf;
+    private final byte[]            mBuffer;
+    private final byte[]            mHeader;
+    private final List<RawZipEntry> mEntries;
+    private final HashSet<String>   mNames;
+    private       int               mCount;
+    private       long              mWritten;
+
+    private       RawZipEntry   mCurrent;
+    private       long          mCurrentDataStart;
+    private final CRC32         mCrc;
+    private       Deflater      mDeflater;
+    private       byte[]        mDeflateBuffer;
+    private       int           mLevel = Deflater.DEFAULT_COMPRESSION;
+    private       boolean       mClosed;
+    private       ApkSigner     mSigner;
+    private       MessageDigest mDigest;
+
+    public RawZipOutputStream(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException(String.format("can not delete the old file, path=%s", file.getAbsolutePath()));
+        }
+        mRaf = new RandomAccessFile(file, "rw");
+        mBuffer = new byte[BUFFER];
+        mHeader = new byte[RawZipFile.CENTRAL_HEADER_SIZE];
+        mEntries = new ArrayList<RawZipEntry>();
+        mNames = new HashSet<String>();
+        mCrc = new CRC32();
+    }
+
+    /**
+     * 新写入的DEFLATED项使用的压缩级别
+     */
+    public void setLevel(int level) {
+        mLevel = level;
+        if (mDeflater != null) {
+            mDeflater.setLevel(level);
+        }
+    }
+
+    /**
+     * 写的同时计算每一项的SHA1交给signer，签名的时候就不需要再读一遍了
+     */
+    public void setSigner(ApkSigner signer) {
+        mSigner = signer;
+        mDigest = signer != null ? ApkSigner.newDigest() : null;
+    }
+
+    /**
+     * 把src里面的一项原样写进来，压缩后的数据，crc，大小都不变，只是换了名字
+     */
+    public void copyEntry(RawZipFile src, RawZipEntry srcEntry, String name) throws IOException {
+        ensureNoCurrentEntry();
+        RawZipEntry entry = new RawZipEntry(name, srcEntry);
+        entry.setFlags(flagsFor(name, srcEntry.getFlags()));
+        writeLocalHeader(entry);
+        flushBuffer();
+        //直接在内核里面拷贝，数据不进java堆
+        src.transferRawTo(srcEntry, mRaf.getChannel());
+        mWritten += srcEntry.getCompressedSize();
+        mEntries.add(entry);
+        if (mSigner != null && !entry.isDirectory()) {
+            //压缩后的数据没有经过我们，签名需要的是解压后的内容
+            mSigner.addEntry(name, src.getInputStream(srcEntry));
+        }
+    }
+
+    /**
+     * 写入一项已经在别的线程里压缩好的数据，crc和大小都是已知的，不需要回写。
+     * 这里拿不到解压后的内容，所以不能在签名的时候使用
+     */
+    void writeCompressedEntry(RawZipEntry entry, byte[] data, int length) throws IOException {
+        ensureNoCurrentEntry();
+        if (mSigner != null) {
+            throw new ZipException(String.format("can not sign a compressed entry, entry=%s", entry.getName()));
+        }
+        if (entry.getSize() > 0xffffffffL) {
+            throw new ZipException(String.format("zip64 is not supported, entry=%s", entry.getName()));
+        }
+        entry.setCompressedSize(length);
+        entry.setFlags(flagsFor(entry.getName(), entry.getFlags()));
+        writeLocalHeader(entry);
+        writeBytes(data, 0, length);
+        mEntries.add(entry);
+    }
+
+    /**
+     * 开始写一个新的项，crc和大小在closeEntry的时候回写
+     */
+    public void putNextEntry(String name, int method) throws IOException {
+        RawZipEntry entry = new RawZipEntry(name);
+        entry.setMethod(method);
+        entry.setDosTime(javaToDosTime(System.currentTimeMillis()));
+        putNextEntry(entry);
+    }
+
+    /**
+     * 和上面一样，只是名字，压缩方式和时间都由entry指定，crc和大小会被重新计算
+     */
+    void putNextEntry(RawZipEntry entry) throws IOException {
+        ensureNoCurrentEntry();
+        int method = entry.getMethod();
+        if (method != STORED && method != DEFLATED) {
+            throw new ZipException(String.format("unsupported compression method %d, entry=%s", method, entry.getName()));
+        }
+        entry.setFlags(flagsFor(entry.getName(), entry.getFlags()));
+        entry.setCrc(0);
+        entry.setSize(0);
+        entry.setCompressedSize(0);
+        writeLocalHeader(entry);
+        mCurrent = entry;
+        mCurrentDataStart = mWritten;
+        mCrc.reset();
+        if (mDigest != null) {
+            mDigest.reset();
+        }
+        if (method == DEFLATED) {
+            if (mDeflater == null) {
+                mDeflater = new Deflater(mLevel, true);
+                mDeflateBuffer = new byte[BUFFER];
+            } else {
+                mDeflater.reset();
+            }
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (mCurrent == null) {
+            throw new ZipException("no current zip entry");
+        }
+        if (len == 0) {
+            return;
+        }
+        mCrc.update(b, off, len);
+        if (mDigest != null) {
+            mDigest.update(b, off, len);
+        }
+        mCurrent.setSize(mCurrent.getSize() + len);
+        if (mCurrent.getMethod() == DEFLATED) {
+            mDeflater.setInput(b, off, len);
+            while (!mDeflater.needsInput()) {
+                deflate();
+            }
+        } else {
+            writeBytes(b, off, len);
+        }
+    }
+
+    public void closeEntry() throws IOException {
+        if (mCurrent == null) {
+            return;
+        }
+        if (mCurrent.getMethod() == DEFLATED) {
+            mDeflater.finish();
+            while (!mDeflater.finished()) {
+                deflate();
+            }
+        }
+        mCurrent.setCrc(mCrc.getValue());
+        mCurrent.setCompressedSize(mWritten - mCurrentDataStart);
+        if (mCurrent.getSize() > 0xffffffffL || mCurrent.getCompressedSize() > 0xffffffffL) {
+            throw new ZipException(String.format("zip64 is not supported, entry=%s", mCurrent.getName()));
+        }
+        //回写local header里面的crc和大小
+        flushBuffer();
+        long end = mRaf.getFilePointer();
+        writeInt(mHeader, 0, (int) mCurrent.getCrc());
+        writeInt(mHeader, 4, (int) mCurrent.getCompressedSize());
+        writeInt(mHeader, 8, (int) mCurrent.getSize());
+        mRaf.seek(mCurrent.getLocalHeaderOffset() + 14);
+        mRaf.write(mHeader, 0, 12);
+        mRaf.seek(end);
+        mEntries.add(mCurrent);
+        if (mSigner != null) {
+            mSigner.putDigest(mCurrent.getName(), mDigest.digest());
+        }
+        mCurrent = null;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        try {
+            closeEntry();
+            writeCentralDirectory();
+            flushBuffer();
+            mRaf.setLength(mWritten);
+        } finally {
+            mClosed = true;
+            if (mDeflater != null) {
+                mDeflater.end();
+            }
+            mRaf.close();
+        }
+    }
+
+    private void deflate() throws IOException {
+        int len = mDeflater.deflate(mDeflateBuffer, 0, mDeflateBuffer.length);
+        if (len > 0) {
+            writeBytes(mDeflateBuffer, 0, len);
+        }
+    }
+
+    private void ensureNoCurrentEntry() throws IOException {
+        if (mClosed) {
+            throw new IOException("zip stream is closed");
+        }
+        if (mCurrent != null) {
+            closeEntry();
+        }
+    }
+
+    private void writeLocalHeader(RawZipEntry entry) throws IOException {
+        if (!mNames.add(entry.getName())) {
+            throw new ZipException(String.format("duplicate entry: %s", entry.getName()));
+        }
+        if (mWritten > 0xffffffffL) {
+            throw new ZipException("zip64 is not supported, the zip file is too large");
+        }
+        byte[] name = entry.getName().getBytes(UTF8);
+        entry.setLocalHeaderOffset(mWritten);
+        byte[] h = mHeader;
+        writeInt(h, 0, RawZipFile.LOCAL_HEADER_SIGNATURE);
+        writeShort(h, 4, entry.getMethod() == DEFLATED ? VERSION_20 : VERSION_10);
+        writeShort(h, 6, entry.getFlags());
+        writeShort(h, 8, entry.getMethod());
+        writeInt(h, 10, entry.getDosTime());
+        writeInt(h, 14, (int) entry.getCrc());
+        writeInt(h, 18, (int) entry.getCompressedSize());
+        writeInt(h, 22, (int) entry.getSize());
+        writeShort(h, 26, name.length);
+        //用extra字段补0，让数据从对齐的位置开始
+        int padding = getAlignmentPadding(entry, mWritten + RawZipFile.LOCAL_HEADER_SIZE + name.length);
+        writeShort(h, 28, padding);
+        writeBytes(h, 0, RawZipFile.LOCAL_HEADER_SIZE);
+        writeBytes(name, 0, name.length);
+        if (padding > 0) {
+            writeBytes(new byte[padding], 0, padding);
+        }
+    }
+
+    private static int getAlignmentPadding(RawZipEntry entry, long dataOffset) {
+        if (entry.getMethod() != STORED) {
+            return 0;
+        }
+        int alignment = entry.getName().endsWith(".so") ? SO_ALIGNMENT : ALIGNMENT;
+        return (int) ((alignment - dataOffset % alignment) % alignment);
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long cdOffset = mWritten;
+        byte[] h = mHeader;
+        for (RawZipEntry entry : mEntries) {
+            byte[] name = entry.getName().getBytes(UTF8);
+            int version = entry.getMethod() == DEFLATED ? VERSION_20 : VERSION_10;
+            writeInt(h, 0, RawZipFile.CENTRAL_HEADER_SIGNATURE);
+            writeShort(h, 4, version);
+            writeShort(h, 6, version);
+            writeShort(h, 8, entry.getFlags());
+            writeShort(h, 10, entry.getMethod());
+            writeInt(h, 12, entry.getDosTime());
+            writeInt(h, 16, (int) entry.getCrc());
+            writeInt(h, 20, (int) entry.getCompressedSize());
+            writeInt(h, 24, (int) entry.getSize());
+            writeShort(h, 28, name.length);
+            //extra, comment, disk number start, internal attributes
+            writeShort(h, 30, 0);
+            writeShort(h, 32, 0);
+            writeShort(h, 34, 0);
+            writeShort(h, 36, 0);
+            writeInt(h, 38, 0);
+            writeInt(h, 42, (int) entry.getLocalHeaderOffset());
+            writeBytes(h, 0, RawZipFile.CENTRAL_HEADER_SIZE);
+            writeBytes(name, 0, name.length);
+        }
+        long cdSize = mWritten - cdOffset;
+        if (mEntries.size() > 0xffff || mWritten > 0xffffffffL) {
+            throw new ZipException("zip64 is not supported, too many entries or the zip file is too large");
+        }
+        writeInt(h, 0, RawZipFile.END_HEADER_SIGNATURE);
+        writeShort(h, 4, 0);
+        writeShort(h, 6, 0);
+        writeShort(h, 8, mEntries.size());
+        writeShort(h, 10, mEntries.size());
+        writeInt(h, 12, (int) cdSize);
+        writeInt(h, 16, (int) cdOffset);
+        writeShort(h, 20, 0);
+        writeBytes(h, 0, RawZipFile.END_HEADER_SIZE);
+    }
+
+    private void writeBytes(byte[] b, int off, int len) throws IOException {
+        if (len >= mBuffer.length) {
+            flushBuffer();
+            mRaf.write(b, off, len);
+        } else {
+            if (len > mBuffer.length - mCount) {
+                flushBuffer();
+            }
+            System.arraycopy(b, off, mBuffer, mCount, len);
+            mCount += len;
+        }
+        mWritten += len;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (mCount > 0) {
+            mRaf.write(mBuffer, 0, mCount);
+            mCount = 0;
+        }
+    }
+
+    private static int flagsFor(String name, int flags) {
+        flags &= FLAG_MASK;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) >= 0x80) {
+                return flags | FLAG_UTF8;
+            }
+        }
+        return flags & ~FLAG_UTF8;
+    }
+
+    private static void writeShort(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+    }
+
+    private static void writeInt(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+        b[off + 2] = (byte) (value >>> 16);
+        b[off + 3] = (byte) (value >>> 24);
+    }
+
+    private static int javaToDosTime(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 | c.get(Calendar.DAY_OF_MONTH) << 16
+            | c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+    }
+}
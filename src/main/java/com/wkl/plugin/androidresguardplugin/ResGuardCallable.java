@@ -0,0 +1,226 @@
+package com.wkl.plugin.androidresguardplugin;
+
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jenkins.MasterToSlaveFileCallable;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.tencent.mm.resourceproguard.InputParam;
+import com.tencent.mm.resourceproguard.ResGuardMain;
+import com.wkl.plugin.util.PrefixPrintStream;
+import com.wkl.plugin.util.Util;
+
+/**
+ * 通过FilePath.act在持有workspace的机器上执行整个混淆流程，
+ * apk的读写都在本地磁盘上进行，不经过remoting通道，返回给master的只有一行摘要
+ */
+class ResGuardCallable extends MasterToSlaveFileCallable<String> {
+    private static final long serialVersionUID = 1L;
+
+    private final String apkPath;
+    private final boolean keepRoot;
+    private final String whiteList;
+    private final String oldMapping;
+    private final String compress;
+    private final String signPath;
+    private final String storePass;
+    private final String keyPass;
+    private final String alias;
+    private final String outFolder;
+    private final String metaName;
+    private final boolean streaming;
+    private final int threads;
+    private final int memoryThreshold;
+    private final TaskListener listener;
+
+    ResGuardCallable(ResGuardProcess process, TaskListener listener) {
+        this.apkPath = process.getApkPath();
+        this.keepRoot = process.isKeepRoot();
+        this.whiteList = process.getWhiteList();
+        this.oldMapping = process.getOldMapping();
+        this.compress = process.getCompress();
+        this.signPath = process.getSignPath();
+        this.storePass = process.getStorePass();
+        this.keyPass = process.getKeyPass();
+        this.alias = process.getAlias();
+        this.outFolder = process.getOutFolder();
+        this.metaName = process.getMetaName();
+        this.streaming = process.isStreaming();
+        this.threads = process.getThreads();
+        this.memoryThreshold = process.getMemoryThreshold();
+        this.listener = listener;
+    }
+
+    @Override
+    public String invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        PrintStream log = listener.getLogger();
+        File parent = null;
+        String fileName = null;
+        if (apkPath.contains(File.separator)) {
+            String dir = apkPath.substring(0, apkPath.lastIndexOf(File.separator));
+            parent = new File(workspace, dir);
+            fileName = apkPath.substring(apkPath.lastIndexOf(File.separator) + 1);
+        } else {
+            parent = workspace;
+            fileName = apkPath;
+        }
+        log.println("parent:" + parent.getAbsolutePath());
+        log.println("fileName:" + fileName);
+        if (!parent.exists() || !parent.isDirectory()) {
+            throw new IOException("apk path not exist, please check");
+        }
+
+        InputParam.Builder builder = new InputParam.Builder();
+        if (!StringUtils.isEmpty(compress)) {
+            if (compress.contains(",")) {
+                String[] com = compress.split(",");
+                builder.setCompressFilePattern(Arrays.asList(com));
+            } else {
+                List<String> com = new ArrayList<String>(1);
+                com.add(compress);
+                builder.setCompressFilePattern(com);
+            }
+        }
+        builder.setKeepRoot(keepRoot);
+        builder.setKeypass(keyPass);
+        if (!StringUtils.isEmpty(oldMapping)) {
+            File map = resolve(workspace, oldMapping);
+            if (map.exists()) {
+                builder.setMappingFile(map);
+            }
+        }
+        builder.setOutBuilder(workspace.getAbsolutePath() + File.separator
+                + outFolder);
+        if (!StringUtils.isEmpty(signPath)) {
+            builder.setSignFile(resolve(workspace, signPath));
+        }
+        builder.setStorealias(alias);
+        builder.setStorepass(storePass);
+        builder.setUse7zip(true);
+        builder.setMetaName(metaName);
+        builder.setStreaming(streaming);
+        builder.setMemoryDirThreshold(memoryThreshold * 1024L * 1024L);
+        if (!StringUtils.isEmpty(whiteList)) {
+            if (whiteList.contains(",")) {
+                String white[] = whiteList.split(",");
+                builder.setWhiteList(Arrays.asList(white));
+            } else {
+                List<String> white = new ArrayList<String>(1);
+                white.add(whiteList);
+                builder.setWhiteList(white);
+            }
+        }
+        if (apkPath.contains("*") || apkPath.contains("?")) {
+            File[] files = Util.searchFileWithPattern(parent, fileName);
+            if (files == null || files.length == 0) {
+                return "android resGuard:no apk file to guard!";
+            }
+            //匹配到多个apk的时候每个apk输出到自己的子目录，否则会互相覆盖
+            String outRoot = workspace.getAbsolutePath() + File.separator + outFolder;
+            //同时跑的apk平分cpu核数，否则每个apk都会按全部核数开解压和压缩的线程
+            int concurrent = Math.min(threads, files.length);
+            if (concurrent > 1) {
+                builder.setWorkerThreads(Math.max(1, Runtime.getRuntime().availableProcessors() / concurrent));
+            }
+            List<InputParam> params = new ArrayList<InputParam>(files.length);
+            for (File file : files) {
+                String name = file.getName();
+                builder.setApkPath(file.getAbsolutePath());
+                builder.setOutBuilder(outRoot + File.separator + name.substring(0, name.lastIndexOf(".apk")));
+                params.add(builder.create());
+            }
+            if (threads > 1 && files.length > 1) {
+                guardParallel(params, log);
+            } else {
+                for (InputParam param : params) {
+                    log.printf("resguard file: %s \n", param.apkPath);
+                    ResGuardMain.gradleRun(param, log);
+                }
+            }
+            return String.format("resguard complete, %d apk files guarded", files.length);
+        } else {
+            File file = new File(parent, fileName);
+            if (!file.exists()) {
+                return "android resGuard:no apk file to guard!";
+            }
+            log.printf("resguard file: %s \n", file.getAbsolutePath());
+            builder.setApkPath(file.getAbsolutePath());
+            InputParam param = builder.create();
+            ResGuardMain.gradleRun(param, log);
+            return "resguard complete";
+        }
+    }
+
+    /**
+     * 配置里面的路径都是相对于workspace的
+     */
+    private static File resolve(File workspace, String path) {
+        if (path.contains(File.separator)) {
+            String dir = path.substring(0, path.lastIndexOf(File.separator));
+            String file = path.substring(path.lastIndexOf(File.separator) + 1);
+            return new File(workspace.getAbsolutePath() + File.separator + dir, file);
+        }
+        return new File(workspace, path);
+    }
+
+    /**
+     * 同时混淆多个apk，每个apk的输出前面加上apk的名字，全部跑完之后再报告失败的apk
+     */
+    private void guardParallel(List<InputParam> params, final PrintStream log)
+            throws InterruptedException, IOException {
+        int count = Math.min(threads, params.size());
+        log.printf("resguard %d files with %d threads, %d worker threads for each file\n", params.size(), count,
+                params.get(0).workerThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(params.size());
+            for (final InputParam param : params) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        String name = new File(param.apkPath).getName();
+                        PrintStream apkLog = new PrefixPrintStream(log, "[" + name + "] ");
+                        try {
+                            apkLog.printf("resguard file: %s \n", param.apkPath);
+                            ResGuardMain.gradleRun(param, apkLog);
+                        } finally {
+                            apkLog.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            IOException failure = null;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    log.printf("resguard file failed: %s\n", params.get(i).apkPath);
+                    e.getCause().printStackTrace(log);
+                    if (failure == null) {
+                        failure = new IOException("resguard file failed: " + params.get(i).apkPath, e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
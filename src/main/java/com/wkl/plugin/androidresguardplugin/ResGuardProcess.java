@@ -12,10 +12,6 @@ import hudson.util.FormValidation;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 
 import javax.servlet.ServletException;
 
@@ -27,10 +23,6 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
-import com.tencent.mm.resourceproguard.InputParam;
-import com.tencent.mm.resourceproguard.ResGuardMain;
-import com.wkl.plugin.util.Util;
-
 public class ResGuardProcess extends Builder implements SimpleBuildStep {
 
     private String apkPath = "app/build/outputs/apk/*release*.apk";
@@ -44,12 +36,15 @@ public class ResGuardProcess extends Builder implements SimpleBuildStep {
     private String alias;
     private String outFolder = "app/build/outputs/apk/resguard";
     private String metaName;
+    private boolean streaming = false;
+    private int threads = 1;
+    private int memoryThreshold = 64;
 
     @DataBoundConstructor
     public ResGuardProcess(String apkPath, boolean keepRoot, String whiteList,
             String oldMapping, String compress, String signPath,
             String storePass, String keyPass, String alias, String metaName,
-            String outFolder) {
+            String outFolder, boolean streaming, int threads, int memoryThreshold) {
         if (!StringUtils.isEmpty(apkPath)) {
             this.apkPath = apkPath;
         }
@@ -65,6 +60,13 @@ public class ResGuardProcess extends Builder implements SimpleBuildStep {
         if (!StringUtils.isEmpty(outFolder)) {
             this.outFolder = outFolder;
         }
+        this.streaming = streaming;
+        if (threads > 0) {
+            this.threads = threads;
+        }
+        if (memoryThreshold > 0) {
+            this.memoryThreshold = memoryThreshold;
+        }
     }
 
     public String getApkPath() {
@@ -111,109 +113,24 @@ public class ResGuardProcess extends Builder implements SimpleBuildStep {
         return metaName;
     }
 
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getMemoryThreshold() {
+        return memoryThreshold;
+    }
+
     @Override
     public void perform(Run<?, ?> build, FilePath workspace, Launcher launcher,
             TaskListener listener) throws InterruptedException, IOException {
-        PrintStream log = listener.getLogger();
-        File parent = null;
-        String fileName = null;
-        if (apkPath.contains(File.separator)) {
-            String dir = apkPath.substring(0, apkPath.lastIndexOf(File.separator));
-            parent = new File(workspace.getRemote(), dir);
-            fileName = apkPath.substring(apkPath.lastIndexOf(File.separator) + 1);
-        } else {
-            parent = new File(workspace.getRemote());
-            fileName = apkPath;
-        }
-        log.println("parent:" + parent.getAbsolutePath());
-        log.println("fileName:" + fileName);
-        if (!parent.exists() || !parent.isDirectory()) {
-            throw new IOException("apk path not exist, please check");
-        }
-
-        InputParam.Builder builder = new InputParam.Builder();
-        if (!StringUtils.isEmpty(compress)) {
-            if (compress.contains(",")) {
-                String[] com = compress.split(",");
-                builder.setCompressFilePattern(Arrays.asList(com));
-            } else {
-                List<String> com = new ArrayList<String>(1);
-                com.add(compress);
-                builder.setCompressFilePattern(com);
-            }
-        }
-        builder.setKeepRoot(keepRoot);
-        builder.setKeypass(keyPass);
-        if (!StringUtils.isEmpty(oldMapping)) {
-            String dir;
-            String file;
-            if (oldMapping.contains(File.separator)) {
-                dir = oldMapping.substring(0, oldMapping.lastIndexOf(File.separator));
-                dir = workspace.getRemote() + File.separator + dir;
-                file = oldMapping.substring(oldMapping.lastIndexOf(File.separator) + 1);
-            } else {
-                dir = workspace.getRemote();
-                file = oldMapping;
-            }
-            File map = new File(dir, file);
-            if (map.exists()) {
-                builder.setMappingFile(map);
-            }
-        }
-        builder.setOutBuilder(workspace.getRemote() + File.separator
-                + outFolder);
-        if (!StringUtils.isEmpty(signPath)) {
-            String dir;
-            String file;
-            if (signPath.contains(File.separator)) {
-                dir = signPath.substring(0, signPath.lastIndexOf(File.separator));
-                dir = workspace.getRemote() + File.separator + dir;
-                file = signPath.substring(signPath.lastIndexOf(File.separator) + 1);
-            } else {
-                dir = workspace.getRemote();
-                file = signPath;
-            }
-            File signFile = new File(dir, file);
-            builder.setSignFile(signFile);
-        }
-        builder.setStorealias(alias);
-        builder.setStorepass(storePass);
-        builder.setUse7zip(true);
-        builder.setMetaName(metaName);
-        if (!StringUtils.isEmpty(whiteList)) {
-            if (whiteList.contains(",")) {
-                String white[] = whiteList.split(",");
-                builder.setWhiteList(Arrays.asList(white));
-            } else {
-                List<String> white = new ArrayList<String>(1);
-                white.add(whiteList);
-                builder.setWhiteList(white);
-            }
-        }
-        if (apkPath.contains("*") || apkPath.contains("?")) {
-            File[] files = Util.searchFileWithPattern(parent, fileName);
-            if (files == null || files.length == 0) {
-                log.println("android resGuard:no apk file to guard!");
-                return;
-            }
-            for (File file : files) {
-                log.printf("resguard file: %s \n", file.getAbsolutePath());
-                builder.setApkPath(file.getAbsolutePath());
-                InputParam param = builder.create();
-                ResGuardMain.gradleRun(param, log);
-            }
-        } else {
-            File file = new File(parent, fileName);
-            if (!file.exists()) {
-                log.println("android resGuard:no apk file to guard!");
-                return;
-            }
-            log.printf("resguard file: %s \n", file.getAbsolutePath());
-            builder.setApkPath(file.getAbsolutePath());
-            InputParam param = builder.create();
-            ResGuardMain.gradleRun(param, log);
-        }
-        log.println("resguard complete");
+        //混淆在持有workspace的agent上执行，只有结果的摘要会传回来
+        String summary = workspace.act(new ResGuardCallable(this, listener));
+        listener.getLogger().println(summary);
     }
 
     @Override
@@ -282,6 +199,24 @@ public class ResGuardProcess extends Builder implements SimpleBuildStep {
             return FormValidation.ok();
         }
 
+        public FormValidation doCheckStreaming(@QueryParameter boolean value) {
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckThreads(@QueryParameter String value) {
+            if (value.length() > 0 && !value.matches("\\d+")) {
+                return FormValidation.error("Please input a positive number!");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckMemoryThreshold(@QueryParameter String value) {
+            if (value.length() > 0 && !value.matches("\\d+")) {
+                return FormValidation.error("Please input a positive number!");
+            }
+            return FormValidation.ok();
+        }
+
         public FormValidation doCheckApkPath(@QueryParameter String value)
                 throws IOException, ServletException {
             if (value.length() == 0) {
@@ -0,0 +1,66 @@
+package com.wkl.plugin.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * 在每一行前面加上前缀再输出到同一个log里，多个apk同时混淆的时候可以区分出是哪一个apk的输出。
+ * 每一行是整行写出去的，不同线程的输出不会混在同一行里面
+ */
+public class PrefixPrintStream extends PrintStream {
+
+    public PrefixPrintStream(PrintStream target, String prefix) {
+        super(new PrefixOutputStream(target, prefix), true);
+    }
+
+    private static class PrefixOutputStream extends OutputStream {
+        private final PrintStream           target;
+        private final byte[]                prefix;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        PrefixOutputStream(PrintStream target, String prefix) {
+            this.target = target;
+            this.prefix = prefix.getBytes();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            line.write(b);
+            if (b == '\n') {
+                writeLine();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int start = off;
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    line.write(b, start, i + 1 - start);
+                    writeLine();
+                    start = i + 1;
+                }
+            }
+            line.write(b, start, off + len - start);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (line.size() > 0) {
+                line.write('\n');
+                writeLine();
+            }
+        }
+
+        private void writeLine() {
+            synchronized (target) {
+                target.write(prefix, 0, prefix.length);
+                target.write(line.toByteArray(), 0, line.size());
+                target.flush();
+            }
+            line.reset();
+        }
+    }
+}